@@ -0,0 +1,112 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import com.zextras.carbonio.preview.exceptions.InternalServerError;
+import com.zextras.carbonio.preview.queries.BlobRequest;
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import io.vavr.control.Try;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sends the files of a batch to the Preview service overlapping their round trips: the files are
+ * dispatched on the given executor, each one on its own pooled connection, and the results are
+ * returned in the order of the files as soon as each of them is completed.
+ * <p>
+ * At most as many files as the concurrency share of the lane of the next file are in flight or
+ * waiting to be read, so a slow reader does not pile up the whole batch in memory. The first
+ * files are dispatched when the first result is requested.
+ */
+class BatchIterator implements Iterator<Try<BlobResponse>> {
+
+  private final Iterator<BlobRequest>                    blobRequests;
+  private final Function<BlobRequest, Try<BlobResponse>> sendBlob;
+  private final ToIntFunction<BlobRequest>               concurrency;
+  private final ExecutorService                          executor;
+  private final Deque<Future<Try<BlobResponse>>>         dispatched = new ArrayDeque<>();
+  private BlobRequest                                    nextBlobRequest;
+
+  /**
+   * @param sendBlob sends a single file and returns its result. It must not throw, and it must
+   * close the input stream of the file.
+   * @param concurrency returns how many files can be in flight when the given one is dispatched.
+   */
+  BatchIterator(
+    Iterator<BlobRequest> blobRequests,
+    Function<BlobRequest, Try<BlobResponse>> sendBlob,
+    ToIntFunction<BlobRequest> concurrency,
+    ExecutorService executor
+  ) {
+    this.blobRequests = blobRequests;
+    this.sendBlob = sendBlob;
+    this.concurrency = concurrency;
+    this.executor = executor;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !dispatched.isEmpty() || nextBlobRequest != null || blobRequests.hasNext();
+  }
+
+  @Override
+  public Try<BlobResponse> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    dispatch();
+    Try<BlobResponse> result = await(dispatched.removeFirst());
+    // The slot of the returned result is free: the following file can be sent meanwhile
+    dispatch();
+    return result;
+  }
+
+  private void dispatch() {
+    while (true) {
+      if (nextBlobRequest == null) {
+        if (!blobRequests.hasNext()) {
+          return;
+        }
+        nextBlobRequest = blobRequests.next();
+      }
+      if (dispatched.size() >= Math.max(1, concurrency.applyAsInt(nextBlobRequest))) {
+        return;
+      }
+
+      BlobRequest blobRequest = nextBlobRequest;
+      nextBlobRequest = null;
+      try {
+        dispatched.addLast(executor.submit(() -> sendBlob.apply(blobRequest)));
+      } catch (RejectedExecutionException exception) {
+        // The client has been closed: the file is not sent
+        IOUtils.closeQuietly(blobRequest.getBlob());
+        dispatched.addLast(
+          CompletableFuture.completedFuture(Try.failure(new InternalServerError(exception)))
+        );
+      }
+    }
+  }
+
+  private static Try<BlobResponse> await(Future<Try<BlobResponse>> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      return Try.failure(new InternalServerError(exception));
+    } catch (ExecutionException exception) {
+      return Try.failure(new InternalServerError(exception.getCause()));
+    }
+  }
+}
@@ -0,0 +1,207 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import com.zextras.carbonio.preview.exceptions.ItemNotFound;
+import com.zextras.carbonio.preview.exceptions.PreviewException;
+import com.zextras.carbonio.preview.exceptions.ValidationError;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A small LRU cache of the GET requests that failed with an {@link ItemNotFound} or a
+ * {@link ValidationError}. While an entry is alive the same request fails immediately without
+ * being sent to the Preview service. Each error type has its own time to live: a zero
+ * {@link Duration} disables the caching of that error type.
+ * <p>
+ * A failure is cached only if its file has not been invalidated after the request was started, so
+ * a request still running during an invalidation can not store a stale error.
+ */
+class NegativeCache {
+
+  private final long                       itemNotFoundTtlNanos;
+  private final long                       validationErrorTtlNanos;
+  private final Map<String, CachedFailure> entries;
+  // Guarded by entries: the generation of the last invalidation of each recently invalidated file
+  private final Map<String, Long>          invalidations;
+  private long                             generation;
+  private long                             forgottenGeneration;
+
+  NegativeCache(
+    Duration itemNotFoundTtl,
+    Duration validationErrorTtl,
+    int maxEntries
+  ) {
+    this.itemNotFoundTtlNanos = itemNotFoundTtl.toNanos();
+    this.validationErrorTtlNanos = validationErrorTtl.toNanos();
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedFailure> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    this.invalidations = new LinkedHashMap<>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        if (size() > Math.max(1, maxEntries)) {
+          forgottenGeneration = Math.max(forgottenGeneration, eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  private static String createKey(
+    String fileOwnerId,
+    String requestUri
+  ) {
+    return fileOwnerId + ' ' + requestUri;
+  }
+
+  private boolean isEnabled() {
+    return itemNotFoundTtlNanos > 0 || validationErrorTtlNanos > 0;
+  }
+
+  /**
+   * @return an {@link Optional} containing a new instance of the cached error for the given
+   * request, or empty if the request is not cached or its entry is expired.
+   */
+  Optional<PreviewException> get(
+    String fileOwnerId,
+    String requestUri
+  ) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+
+    String key = createKey(fileOwnerId, requestUri);
+    synchronized (entries) {
+      CachedFailure entry = entries.get(key);
+      if (entry == null) {
+        return Optional.empty();
+      }
+      if (System.nanoTime() - entry.expiresAtNanos >= 0) {
+        entries.remove(key);
+        return Optional.empty();
+      }
+      return Optional.of(
+        entry.itemNotFound
+          ? new ItemNotFound()
+          : new ValidationError()
+      );
+    }
+  }
+
+  /**
+   * @return the {@link Target} of a GET request, bound to the current invalidation generation so
+   * a failure received after an invalidation of the same file is not cached.
+   */
+  Target createTarget(
+    String fileOwnerId,
+    String fileId,
+    String requestUri
+  ) {
+    synchronized (entries) {
+      return new Target(createKey(fileOwnerId, requestUri), fileId, generation);
+    }
+  }
+
+  /**
+   * Caches the failure of a request if it is an error type with a positive time to live, unless
+   * the file of the {@link Target} has been invalidated after the target was created.
+   */
+  void put(
+    Target target,
+    Throwable failure
+  ) {
+    long ttlNanos;
+    if (failure instanceof ItemNotFound) {
+      ttlNanos = itemNotFoundTtlNanos;
+    } else if (failure instanceof ValidationError) {
+      ttlNanos = validationErrorTtlNanos;
+    } else {
+      return;
+    }
+    if (ttlNanos <= 0) {
+      return;
+    }
+
+    CachedFailure entry = new CachedFailure(
+      target.fileId,
+      failure instanceof ItemNotFound,
+      System.nanoTime() + ttlNanos
+    );
+    synchronized (entries) {
+      Long invalidatedAt = invalidations.get(target.fileId);
+      boolean invalidated = (invalidatedAt != null && invalidatedAt > target.generation)
+        || target.generation < forgottenGeneration;
+      if (!invalidated) {
+        entries.put(target.key, entry);
+      }
+    }
+  }
+
+  /**
+   * Removes all the cached errors of any version of the given file.
+   */
+  void invalidate(String fileId) {
+    synchronized (entries) {
+      entries.values().removeIf(entry -> entry.fileId.equals(fileId));
+      generation++;
+      invalidations.remove(fileId);
+      invalidations.put(fileId, generation);
+    }
+  }
+
+  void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+      invalidations.clear();
+      // Every target created so far is older than this invalidation
+      generation++;
+      forgottenGeneration = generation;
+    }
+  }
+
+  /**
+   * The cache slot of a GET request: where to store its failure.
+   */
+  static class Target {
+
+    private final String key;
+    private final String fileId;
+    private final long   generation;
+
+    private Target(
+      String key,
+      String fileId,
+      long generation
+    ) {
+      this.key = key;
+      this.fileId = fileId;
+      this.generation = generation;
+    }
+  }
+
+  private static class CachedFailure {
+
+    private final String  fileId;
+    private final boolean itemNotFound;
+    private final long    expiresAtNanos;
+
+    CachedFailure(
+      String fileId,
+      boolean itemNotFound,
+      long expiresAtNanos
+    ) {
+      this.fileId = fileId;
+      this.itemNotFound = itemNotFound;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+}
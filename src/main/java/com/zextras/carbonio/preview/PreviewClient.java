@@ -7,31 +7,77 @@ package com.zextras.carbonio.preview;
 import com.zextras.carbonio.preview.exceptions.BadRequest;
 import com.zextras.carbonio.preview.exceptions.InternalServerError;
 import com.zextras.carbonio.preview.exceptions.ItemNotFound;
+import com.zextras.carbonio.preview.exceptions.PreviewException;
+import com.zextras.carbonio.preview.exceptions.TooManyRequests;
 import com.zextras.carbonio.preview.exceptions.ValidationError;
+import com.zextras.carbonio.preview.queries.BlobRequest;
 import com.zextras.carbonio.preview.queries.BlobResponse;
 import com.zextras.carbonio.preview.queries.Query;
+import com.zextras.carbonio.preview.queries.QueryValidator;
+import com.zextras.carbonio.preview.queries.enums.Endpoint;
+import com.zextras.carbonio.preview.queries.enums.Priority;
+import io.vavr.Function3;
+import io.vavr.collection.Iterator;
 import io.vavr.control.Try;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.util.EntityUtils;
 
 /**
  * An HTTP client that allows to execute HTTP requests to the Preview service. This is the main
  * class needed to call the Preview APIs.
+ * <p>
+ * Every {@link Query} is checked with the {@link QueryValidator} before being sent: an invalid
+ * query fails with a {@link ValidationError} without any network call.
+ * <p>
+ * The client keeps a pool of connections to the Preview service, so a single instance should be
+ * shared and closed via {@link #close()} when it is not needed anymore. Every returned
+ * {@link BlobResponse} must be closed as well, to give its connection back to the pool. The
+ * connections are shared among the {@link Priority} lanes: a request holds its share until the
+ * content of its {@link BlobResponse} is fully read or closed.
  */
-public class PreviewClient {
+public class PreviewClient implements Closeable {
 
   private final String previewEndpoint;
   private final String previewUrl;
@@ -43,11 +89,88 @@ public class PreviewClient {
   private final String thumbnailPathParam = "thumbnail";
   private final String fileOwnerIdHeader  = "FileOwnerId";
 
+  private final CloseableHttpClient httpClient;
+  private final boolean             traceContextPropagation;
+  private final NegativeCache       negativeCache;
+  private final PriorityGate        priorityGate;
+  private final ResponseCache       responseCache;
+  private final ThreadPoolExecutor  revalidationExecutor;
+  private final ThreadPoolExecutor  batchExecutor;
+  private final TimingConnectionManager connectionManager;
+  private final int                 warmUpConnections;
+  private final Duration            warmUpTimeout;
+  private final RequestConfig       requestConfig;
+
   // UTILITY
 
   PreviewClient(String previewURL) {
-    this.previewUrl = previewURL;
-    this.previewEndpoint = previewURL + "/preview";
+    this(new PreviewClientBuilder(previewURL));
+  }
+
+  private PreviewClient(PreviewClientBuilder builder) {
+    this.previewUrl = builder.url;
+    this.previewEndpoint = builder.url + "/preview";
+    this.traceContextPropagation = builder.traceContextPropagation;
+    this.negativeCache = new NegativeCache(
+      builder.itemNotFoundCacheTtl, builder.validationErrorCacheTtl, builder.negativeCacheSize
+    );
+    this.priorityGate = new PriorityGate(
+      builder.maxConnections, builder.laneShares, builder.laneQueueCapacities, builder.queueTimeout
+    );
+    this.responseCache = new ResponseCache(
+      builder.responseCacheSize,
+      builder.responseCacheMaxEntryBytes,
+      builder.responseCacheFreshness,
+      builder.staleWhileRevalidate
+    );
+    // Stale entries are served, and so revalidated in the background, only with a positive window
+    if (builder.responseCacheSize > 0 && builder.staleWhileRevalidate.toNanos() > 0) {
+      this.revalidationExecutor = new ThreadPoolExecutor(
+        2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "preview-client-revalidation");
+          thread.setDaemon(true);
+          return thread;
+        }
+      );
+      this.revalidationExecutor.allowCoreThreadTimeOut(true);
+    } else {
+      this.revalidationExecutor = null;
+    }
+
+    // The threads of the batches are created on demand, up to the share of each running batch
+    this.batchExecutor = new ThreadPoolExecutor(
+      0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "preview-client-batch");
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+
+    this.warmUpConnections = Math.min(builder.warmUpConnections, builder.maxConnections);
+    this.warmUpTimeout = builder.warmUpTimeout;
+    this.requestConfig = RequestConfig
+      .custom()
+      .setConnectionRequestTimeout((int) builder.connectionRequestTimeout.toMillis())
+      .setConnectTimeout((int) builder.connectTimeout.toMillis())
+      .setSocketTimeout((int) builder.socketTimeout.toMillis())
+      .build();
+    this.connectionManager = new TimingConnectionManager();
+    connectionManager.setMaxTotal(builder.maxConnections);
+    connectionManager.setDefaultMaxPerRoute(builder.maxConnections);
+    connectionManager.setDefaultSocketConfig(
+      SocketConfig.custom().setSoTimeout((int) builder.socketTimeout.toMillis()).build()
+    );
+    this.httpClient = HttpClientBuilder
+      .create()
+      .setDefaultRequestConfig(requestConfig)
+      .setConnectionManager(connectionManager)
+      .setRequestExecutor(new TimingRequestExecutor())
+      .disableAutomaticRetries()
+      .disableRedirectHandling()
+      .disableCookieManagement()
+      .disableAuthCaching()
+      .disableContentCompression()
+      .build();
   }
 
 
@@ -111,7 +234,9 @@ public class PreviewClient {
    * ok.
    */
   public Try<BlobResponse> getPreviewOfImage(Query query) {
-    return sendGetToPreviewService(query.toString(), imageEndpoint, query.getFileOwnerId().get());
+    return sendGetToPreviewService(
+      query, Endpoint.IMAGE_PREVIEW, query.toString(), imageEndpoint
+    );
   }
 
 
@@ -125,7 +250,7 @@ public class PreviewClient {
    */
   public Try<BlobResponse> getThumbnailOfImage(Query query) {
     return sendGetToPreviewService(
-      createPathForThumbnail(query), imageEndpoint, query.getFileOwnerId().get()
+      query, Endpoint.IMAGE_THUMBNAIL, createPathForThumbnail(query), imageEndpoint
     );
   }
 
@@ -145,7 +270,9 @@ public class PreviewClient {
     Query query,
     String fileName
   ) {
-    return sendPostToPreviewService(blob, fileName, query.toString(), imageEndpoint);
+    return sendPostToPreviewService(
+      blob, fileName, query, Endpoint.IMAGE_PREVIEW, query.toString(), imageEndpoint
+    );
   }
 
   /**
@@ -163,7 +290,26 @@ public class PreviewClient {
     Query query,
     String fileName
   ) {
-    return sendPostToPreviewService(blob, fileName, createPathForThumbnail(query), imageEndpoint);
+    return sendPostToPreviewService(
+      blob, fileName, query, Endpoint.IMAGE_THUMBNAIL, createPathForThumbnail(query), imageEndpoint
+    );
+  }
+
+  /**
+   * Allows to send many IMAGEs to the THUMBNAIL endpoint and be processed. The files are sent
+   * concurrently, up to the concurrency share of the {@link Priority} lane of their query, each
+   * one on its own pooled connection, so their round trips overlap. Each response is fully
+   * buffered in memory, and its connection given back to the pool, as soon as it is received. The
+   * input stream of each {@link BlobRequest} is closed once its file has been sent.
+   *
+   * @param blobRequests is an {@link Iterable} of {@link BlobRequest}s, one for each image.
+   *
+   * @return a lazy {@link Iterator} of {@link Try} of {@link BlobResponse}, one for each image
+   * in the same order. The first files are sent when the first result is requested, and a new
+   * file is sent every time a result is returned. The files never sent are not closed.
+   */
+  public Iterator<Try<BlobResponse>> postThumbnailsOfImages(Iterable<BlobRequest> blobRequests) {
+    return sendBatchToPreviewService(blobRequests, this::postThumbnailOfImage);
   }
 
   //PDF
@@ -177,7 +323,9 @@ public class PreviewClient {
    * ok.
    */
   public Try<BlobResponse> getPreviewOfPdf(Query query) {
-    return sendGetToPreviewService(query.toString(), pdfEndpoint, query.getFileOwnerId().get());
+    return sendGetToPreviewService(
+      query, Endpoint.PDF_PREVIEW, query.toString(), pdfEndpoint
+    );
   }
 
 
@@ -191,7 +339,7 @@ public class PreviewClient {
    */
   public Try<BlobResponse> getThumbnailOfPdf(Query query) {
     return sendGetToPreviewService(
-      createPathForThumbnail(query), pdfEndpoint, query.getFileOwnerId().get()
+      query, Endpoint.PDF_THUMBNAIL, createPathForThumbnail(query), pdfEndpoint
     );
   }
 
@@ -210,7 +358,26 @@ public class PreviewClient {
     Query query,
     String fileName
   ) {
-    return sendPostToPreviewService(blob, fileName, createPathForThumbnail(query), pdfEndpoint);
+    return sendPostToPreviewService(
+      blob, fileName, query, Endpoint.PDF_THUMBNAIL, createPathForThumbnail(query), pdfEndpoint
+    );
+  }
+
+  /**
+   * Allows to send many PDFs to the THUMBNAIL endpoint and be processed. The files are sent
+   * concurrently, up to the concurrency share of the {@link Priority} lane of their query, each
+   * one on its own pooled connection, so their round trips overlap. Each response is fully
+   * buffered in memory, and its connection given back to the pool, as soon as it is received. The
+   * input stream of each {@link BlobRequest} is closed once its file has been sent.
+   *
+   * @param blobRequests is an {@link Iterable} of {@link BlobRequest}s, one for each pdf.
+   *
+   * @return a lazy {@link Iterator} of {@link Try} of {@link BlobResponse}, one for each pdf
+   * in the same order. The first files are sent when the first result is requested, and a new
+   * file is sent every time a result is returned. The files never sent are not closed.
+   */
+  public Iterator<Try<BlobResponse>> postThumbnailsOfPdfs(Iterable<BlobRequest> blobRequests) {
+    return sendBatchToPreviewService(blobRequests, this::postThumbnailOfPdf);
   }
 
   /**
@@ -228,7 +395,9 @@ public class PreviewClient {
     Query query,
     String fileName
   ) {
-    return sendPostToPreviewService(blob, fileName, query.toString(), pdfEndpoint);
+    return sendPostToPreviewService(
+      blob, fileName, query, Endpoint.PDF_PREVIEW, query.toString(), pdfEndpoint
+    );
   }
 
   //DOCUMENT
@@ -243,7 +412,7 @@ public class PreviewClient {
    */
   public Try<BlobResponse> getPreviewOfDocument(Query query) {
     return sendGetToPreviewService(
-      query.toString(), documentEndpoint, query.getFileOwnerId().get()
+      query, Endpoint.DOCUMENT_PREVIEW, query.toString(), documentEndpoint
     );
   }
 
@@ -257,7 +426,7 @@ public class PreviewClient {
    */
   public Try<BlobResponse> getThumbnailOfDocument(Query query) {
     return sendGetToPreviewService(
-      createPathForThumbnail(query), documentEndpoint, query.getFileOwnerId().get()
+      query, Endpoint.DOCUMENT_THUMBNAIL, createPathForThumbnail(query), documentEndpoint
     );
   }
 
@@ -278,10 +447,34 @@ public class PreviewClient {
     String fileName
   ) {
     return sendPostToPreviewService(
-      blob, fileName, createPathForThumbnail(query), documentEndpoint
+      blob,
+      fileName,
+      query,
+      Endpoint.DOCUMENT_THUMBNAIL,
+      createPathForThumbnail(query),
+      documentEndpoint
     );
   }
 
+  /**
+   * Allows to send many DOCUMENTs to the THUMBNAIL endpoint and be processed. The files are sent
+   * concurrently, up to the concurrency share of the {@link Priority} lane of their query, each
+   * one on its own pooled connection, so their round trips overlap. Each response is fully
+   * buffered in memory, and its connection given back to the pool, as soon as it is received. The
+   * input stream of each {@link BlobRequest} is closed once its file has been sent.
+   *
+   * @param blobRequests is an {@link Iterable} of {@link BlobRequest}s, one for each document.
+   *
+   * @return a lazy {@link Iterator} of {@link Try} of {@link BlobResponse}, one for each document
+   * in the same order. The first files are sent when the first result is requested, and a new
+   * file is sent every time a result is returned. The files never sent are not closed.
+   */
+  public Iterator<Try<BlobResponse>> postThumbnailsOfDocuments(
+    Iterable<BlobRequest> blobRequests
+  ) {
+    return sendBatchToPreviewService(blobRequests, this::postThumbnailOfDocument);
+  }
+
   /**
    * Allows to send a DOCUMENT to the PREVIEW endpoint using an HTTP POST and be processed
    *
@@ -297,16 +490,79 @@ public class PreviewClient {
     Query query,
     String fileName
   ) {
-    return sendPostToPreviewService(blob, fileName, query.toString(), documentEndpoint);
+    return sendPostToPreviewService(
+      blob, fileName, query, Endpoint.DOCUMENT_PREVIEW, query.toString(), documentEndpoint
+    );
   }
 
   // API CALL
 
+  private Iterator<Try<BlobResponse>> sendBatchToPreviewService(
+    Iterable<BlobRequest> blobRequests,
+    Function3<InputStream, Query, String, Try<BlobResponse>> sendBlob
+  ) {
+    return Iterator.ofAll(new BatchIterator(
+      blobRequests.iterator(),
+      blobRequest -> {
+        try {
+          return Try
+            .of(() -> sendBlob.apply(
+              blobRequest.getBlob(), blobRequest.getQuery(), blobRequest.getFileName()
+            ))
+            .flatMap(result -> result)
+            .flatMap(this::bufferBlobResponse);
+        } finally {
+          // The blob has been sent already: failing to close it does not change the result
+          IOUtils.closeQuietly(blobRequest.getBlob());
+        }
+      },
+      blobRequest -> priorityGate.getShare(
+        Optional
+          .ofNullable(blobRequest.getQuery())
+          .map(Query::getPriority)
+          .orElse(Priority.NORMAL)
+      ),
+      batchExecutor
+    ));
+  }
+
+  /**
+   * Reads the whole content of a {@link BlobResponse} in memory and closes it, so its connection
+   * and its priority lane slot are released immediately.
+   */
+  private Try<BlobResponse> bufferBlobResponse(BlobResponse blobResponse) {
+    RequestTiming timing = blobResponse.getRequestTiming().orElse(null);
+    try (BlobResponse response = blobResponse) {
+      byte[] body = IOUtils.toByteArray(response.getContent());
+      ByteArrayEntity entity = new ByteArrayEntity(body);
+      entity.setContentType(response.getMimeType());
+      return Try.success(new BlobResponse(new ByteArrayInputStream(body), entity, timing));
+    } catch (IOException exception) {
+      return Try.failure(new InternalServerError(exception, timing));
+    }
+  }
+
   private Try<BlobResponse> sendPostToPreviewService(
     InputStream blob,
     String fileName,
-    String query,
+    Query query,
+    Endpoint queryEndpoint,
+    String path,
     String endpoint
+  ) {
+    return QueryValidator
+      .validateForPost(query, queryEndpoint)
+      .flatMap(validQuery -> sendPostToPreviewService(
+        blob, fileName, path, endpoint, validQuery.getPriority()
+      ));
+  }
+
+  private Try<BlobResponse> sendPostToPreviewService(
+    InputStream blob,
+    String fileName,
+    String query,
+    String endpoint,
+    Priority priority
   ) {
     String requestUri = MessageFormat.format(
       "{0}/{1}{2}",
@@ -318,73 +574,698 @@ public class PreviewClient {
     builder.addBinaryBody("file", blob, ContentType.APPLICATION_OCTET_STREAM, fileName);
     HttpEntity multipart = builder.build();
     httpPost.setEntity(multipart);
-    return sendRequestToPreviewService(httpPost);
+    return sendRequestToPreviewService(httpPost, priority);
 
   }
 
+  private Try<BlobResponse> sendGetToPreviewService(
+    Query query,
+    Endpoint queryEndpoint,
+    String path,
+    String endpoint
+  ) {
+    return QueryValidator
+      .validateForGet(query, queryEndpoint)
+      .flatMap(validQuery -> sendGetToPreviewService(
+        path,
+        endpoint,
+        validQuery.getFileOwnerId().get(),
+        validQuery.getFileId().get(),
+        validQuery.getPriority()
+      ));
+  }
+
   private Try<BlobResponse> sendGetToPreviewService(
     String query,
     String endpoint,
-    String accountHeaderValue
+    String accountHeaderValue,
+    String fileId,
+    Priority priority
   ) {
     String requestUri = MessageFormat.format(
       "{0}/{1}{2}",
       previewEndpoint, endpoint, query
     );
+
+    Optional<PreviewException> cachedFailure = negativeCache.get(accountHeaderValue, requestUri);
+    if (cachedFailure.isPresent()) {
+      return Try.failure(cachedFailure.get());
+    }
+    // Created before sending the request, so a failure racing an invalidation is not cached
+    NegativeCache.Target failureTarget = negativeCache.createTarget(
+      accountHeaderValue, fileId, requestUri
+    );
+
+    String cacheKey = ResponseCache.createKey(accountHeaderValue, requestUri);
+    Optional<ResponseCache.CachedResponse> cachedEntry = responseCache.get(cacheKey);
+    if (cachedEntry.isPresent()) {
+      if (cachedEntry.get().isFresh()) {
+        return Try.success(cachedEntry.get().toBlobResponse(null));
+      }
+      if (cachedEntry.get().isServableWhileRevalidating()) {
+        revalidateInBackground(
+          requestUri,
+          accountHeaderValue,
+          responseCache.createTarget(cacheKey, fileId, cachedEntry.get()),
+          failureTarget
+        );
+        return Try.success(cachedEntry.get().toBlobResponse(null));
+      }
+    }
+
+    return fetchFromPreviewService(
+      requestUri,
+      accountHeaderValue,
+      priority,
+      responseCache.createTarget(cacheKey, fileId, cachedEntry.orElse(null)),
+      failureTarget
+    );
+  }
+
+  private Try<BlobResponse> fetchFromPreviewService(
+    String requestUri,
+    String accountHeaderValue,
+    Priority priority,
+    ResponseCache.Target cacheTarget,
+    NegativeCache.Target failureTarget
+  ) {
     HttpGet request = new HttpGet(requestUri);
     request.setHeader(fileOwnerIdHeader, accountHeaderValue);
-    return sendRequestToPreviewService(request);
+    cacheTarget.getCachedEntry().ifPresent(entry -> entry.addConditionalHeaders(request));
+    return sendRequestToPreviewService(request, priority, cacheTarget)
+      .onFailure(ItemNotFound.class, failure -> responseCache.remove(cacheTarget.getKey()))
+      .onFailure(failure -> negativeCache.put(failureTarget, failure));
+  }
+
+  private void revalidateInBackground(
+    String requestUri,
+    String accountHeaderValue,
+    ResponseCache.Target cacheTarget,
+    NegativeCache.Target failureTarget
+  ) {
+    if (revalidationExecutor == null || !responseCache.startRevalidation(cacheTarget.getKey())) {
+      return;
+    }
+
+    try {
+      revalidationExecutor.execute(() -> {
+        try {
+          fetchFromPreviewService(
+            requestUri, accountHeaderValue, Priority.BACKGROUND, cacheTarget, failureTarget
+          ).onSuccess(blobResponse -> IOUtils.closeQuietly(blobResponse.getContent()));
+        } finally {
+          responseCache.endRevalidation(cacheTarget.getKey());
+        }
+      });
+    } catch (RejectedExecutionException exception) {
+      // The client has been closed: the stale entry is served without revalidating it
+      responseCache.endRevalidation(cacheTarget.getKey());
+    }
   }
 
-  private Try<BlobResponse> sendRequestToPreviewService(HttpRequestBase request) {
+  /**
+   * @return the content type of the given entity, or <code>application/octet-stream</code> if the
+   * Preview service did not send one.
+   */
+  private static String getMimeType(HttpEntity entity) {
+    return entity.getContentType() == null
+      ? ContentType.APPLICATION_OCTET_STREAM.getMimeType()
+      : entity.getContentType().getValue();
+  }
+
+  private Try<BlobResponse> sendRequestToPreviewService(
+    HttpRequestBase request,
+    Priority priority
+  ) {
+    return sendRequestToPreviewService(request, priority, null);
+  }
+
+  private Try<BlobResponse> sendRequestToPreviewService(
+    HttpRequestBase request,
+    Priority priority,
+    ResponseCache.Target cacheTarget
+  ) {
+    RequestTiming timing = new RequestTiming(traceContextPropagation);
+    timing
+      .getTraceParent()
+      .ifPresent(traceParent -> request.setHeader(RequestTiming.TRACE_PARENT_HEADER, traceParent));
+    HttpClientContext context = HttpClientContext.create();
+    context.setAttribute(RequestTiming.CONTEXT_ATTRIBUTE, timing);
 
     try {
-      // The response is not consumed in this code block so if the http client is closed then also
-      // the communication with the service will be closed breaking the response stream of the blob
-      CloseableHttpClient httpClient = HttpClients.createMinimal();
-      CloseableHttpResponse response = httpClient.execute(request);
+      priorityGate.acquire(priority);
+    } catch (TooManyRequests exception) {
+      // The queue wait ends now, so the error shows how long the request was queued
+      timing.failed();
+      return Try.failure(new TooManyRequests(exception.getMessage(), timing));
+    }
+    timing.dequeued();
+
+    boolean streaming = false;
+    CloseableHttpResponse response = null;
+    try {
+      // The response is not consumed in this code block: the connection is given back to the pool
+      // and to the priority lane only when the caller reads or closes the content of the blob
+      response = httpClient.execute(request, context);
       int statusCode = response.getStatusLine().getStatusCode();
+      if (statusCode == HttpStatus.SC_NOT_MODIFIED
+        && cacheTarget != null
+        && cacheTarget.getCachedEntry().isPresent()
+      ) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        timing.downloadEnded();
+        ResponseCache.CachedResponse refreshedEntry = cacheTarget
+          .getCachedEntry()
+          .get()
+          .refresh(response);
+        responseCache.put(cacheTarget, refreshedEntry);
+        return Try.success(refreshedEntry.toBlobResponse(timing));
+      }
+
+      if (statusCode == HttpStatus.SC_OK) {
+        HttpEntity entity = response.getEntity();
+        if (cacheTarget != null && responseCache.accepts(response)) {
+          // A small body is buffered so it can be cached and the connection released immediately
+          byte[] body;
+          try (InputStream content = new TimedInputStream(entity.getContent(), timing, () -> { })) {
+            body = IOUtils.toByteArray(content);
+          }
+          ResponseCache.CachedResponse entry = responseCache.createEntry(
+            cacheTarget.getFileId(), body, getMimeType(entity), response
+          );
+          responseCache.put(cacheTarget, entry);
+          return Try.success(entry.toBlobResponse(timing));
+        }
+
+        InputStream content = new TimedInputStream(
+          entity.getContent(), timing, () -> priorityGate.release(priority)
+        );
+        BlobResponse blobResponse = new BlobResponse(content, entity, timing);
+        // From now on the lane slot is released by the content stream
+        streaming = true;
+        return Try.success(blobResponse);
+      }
+
+      // The body of an error response is not needed: consuming it releases the connection
+      EntityUtils.consumeQuietly(response.getEntity());
+      timing.downloadEnded();
       switch (statusCode) {
-        case HttpStatus.SC_OK:
-          return Try.success(new BlobResponse(response.getEntity()));
         case HttpStatus.SC_NOT_FOUND:
-          return Try.failure(new ItemNotFound());
+          return Try.failure(new ItemNotFound(timing));
         case HttpStatus.SC_UNPROCESSABLE_ENTITY:
-          return Try.failure(new ValidationError());
+          return Try.failure(new ValidationError(timing));
         case HttpStatus.SC_BAD_REQUEST:
-          return Try.failure(new BadRequest());
+          return Try.failure(new BadRequest(timing));
         default:
-          return Try.failure(new InternalServerError());
+          return Try.failure(new InternalServerError(timing));
       }
     } catch (IOException exception) {
-      return Try.failure(new InternalServerError(exception));
+      timing.failed();
+      return Try.failure(new InternalServerError(exception, timing));
+    } finally {
+      if (!streaming) {
+        // A response not handed over to the caller must not keep its connection
+        IOUtils.closeQuietly(response);
+        priorityGate.release(priority);
+      }
     }
   }
 
-  public boolean healthReady() {
-    return checkHealthStatus(healthReadyEndpoint);
+  // WARM UP
+
+  /**
+   * Prepares the client so that the first requests do not pay the cold start costs: it resolves
+   * the address of the Preview service, loads the classes used to build and send the requests,
+   * opens the configured number of pooled connections (see
+   * {@link PreviewClientBuilder#setWarmUpConnections(int)}) and calls the health endpoints.
+   * <p>
+   * Opening the connections and calling the health endpoints share the warm up timeout (see
+   * {@link PreviewClientBuilder#setWarmUpTimeout(Duration)}): the warm up stops at the first
+   * failure or when the timeout is over.
+   *
+   * @return true if every warm up step succeeded and the Preview service is live and ready.
+   */
+  public boolean warmUp() {
+    return warmUp(System.nanoTime() + warmUpTimeout.toNanos());
   }
 
-  public boolean healthLive() {
-    return checkHealthStatus(healthLiveEndpoint);
+  private boolean warmUp(long deadlineNanos) {
+    HttpRoute route = createRoute();
+    try {
+      InetAddress.getAllByName(route.getTargetHost().getHostName());
+    } catch (UnknownHostException exception) {
+      return false;
+    }
+
+    initializeRequestPipeline();
+    return openPooledConnections(route, deadlineNanos)
+      && checkHealthStatus(healthLiveEndpoint, warmUpRequestConfig(deadlineNanos))
+      && checkHealthStatus(healthReadyEndpoint, warmUpRequestConfig(deadlineNanos));
+  }
+
+  /**
+   * @return the milliseconds left before the given deadline, at least 1 so that a zero value is
+   * never taken as an infinite timeout.
+   */
+  private static int remainingMillis(long deadlineNanos) {
+    long remainingNanos = deadlineNanos - System.nanoTime();
+    return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
   }
 
-  private boolean checkHealthStatus(String endpoint) {
-    try (CloseableHttpClient httpClient = HttpClients.createMinimal()) {
+  private RequestConfig warmUpRequestConfig(long deadlineNanos) {
+    int timeoutMillis = remainingMillis(deadlineNanos);
+    return RequestConfig
+      .copy(requestConfig)
+      .setConnectionRequestTimeout(timeoutMillis)
+      .setConnectTimeout(timeoutMillis)
+      .setSocketTimeout(timeoutMillis)
+      .build();
+  }
 
-      String requestUri = MessageFormat.format(
-        "{0}{1}",
-        previewUrl, endpoint
+  private HttpRoute createRoute() {
+    URI uri = URI.create(previewUrl);
+    HttpHost target = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+    try {
+      // The same normalization of the DefaultRoutePlanner, so the requests reuse these connections
+      int port = DefaultSchemePortResolver.INSTANCE.resolve(target);
+      return new HttpRoute(
+        new HttpHost(target.getHostName(), port, target.getSchemeName()),
+        null,
+        "https".equalsIgnoreCase(target.getSchemeName())
       );
-      HttpGet request = new HttpGet(requestUri);
+    } catch (UnsupportedSchemeException exception) {
+      return new HttpRoute(target);
+    }
+  }
 
-      try (CloseableHttpResponse response = httpClient.execute(request)) {
-        return response.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
-      } catch (IOException exception) {
-        return false;
+  private void initializeRequestPipeline() {
+    Query query = new Query.QueryBuilder().setPreviewArea("1x1").build();
+    createPathForThumbnail(query);
+    QueryValidator.validateForPost(query, Endpoint.IMAGE_THUMBNAIL);
+    try (
+      InputStream content = new TimedInputStream(
+        InputStream.nullInputStream(), new RequestTiming(false), () -> { }
+      )
+    ) {
+      MultipartEntityBuilder
+        .create()
+        .addBinaryBody("file", content, ContentType.APPLICATION_OCTET_STREAM, "warm-up")
+        .build()
+        .writeTo(OutputStream.nullOutputStream());
+    } catch (IOException exception) {
+      // Nothing is really sent, the classes are loaded anyway
+    }
+  }
+
+  private boolean openPooledConnections(
+    HttpRoute route,
+    long deadlineNanos
+  ) {
+    List<HttpClientConnection> connections = new ArrayList<>(warmUpConnections);
+    HttpClientContext context = HttpClientContext.create();
+    try {
+      // Any exception stops the loop: an unreachable service costs a single connect timeout
+      for (int i = 0; i < warmUpConnections; i++) {
+        if (System.nanoTime() - deadlineNanos >= 0) {
+          return false;
+        }
+        HttpClientConnection connection = connectionManager
+          .requestConnection(route, null)
+          .get(remainingMillis(deadlineNanos), TimeUnit.MILLISECONDS);
+        connections.add(connection);
+        if (!connection.isOpen()) {
+          connectionManager.connect(connection, route, remainingMillis(deadlineNanos), context);
+          connectionManager.routeComplete(connection, route, context);
+        }
       }
+      return true;
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (IOException | ExecutionException exception) {
+      return false;
+    } finally {
+      // The opened connections go back to the pool ready to be reused, the others are discarded
+      connections.forEach(connection -> connectionManager.releaseConnection(
+        connection, null, 0, TimeUnit.MILLISECONDS
+      ));
+    }
+  }
+
+  public boolean healthReady() {
+    return checkHealthStatus(healthReadyEndpoint, requestConfig);
+  }
+
+  public boolean healthLive() {
+    return checkHealthStatus(healthLiveEndpoint, requestConfig);
+  }
+
+  private boolean checkHealthStatus(
+    String endpoint,
+    RequestConfig config
+  ) {
+    String requestUri = MessageFormat.format(
+      "{0}{1}",
+      previewUrl, endpoint
+    );
+    HttpGet request = new HttpGet(requestUri);
+    request.setConfig(config);
+
+    try (CloseableHttpResponse response = httpClient.execute(request)) {
+      EntityUtils.consumeQuietly(response.getEntity());
+      return response.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
     } catch (IOException exception) {
       return false;
     }
   }
+
+  /**
+   * Removes from the negative cache the {@link ItemNotFound} and {@link ValidationError} results of
+   * every version of the given file. It should be called when a new version of the file is
+   * uploaded, so the next GET is sent to the Preview service.
+   *
+   * @param fileId is a {@link String} representing the id of the file.
+   */
+  public void invalidateNegativeCache(String fileId) {
+    negativeCache.invalidate(fileId);
+  }
+
+  /**
+   * Removes all the entries of the negative cache.
+   */
+  public void invalidateNegativeCache() {
+    negativeCache.invalidateAll();
+  }
+
+  /**
+   * Removes from the response cache the previews of every version of the given file, so the next
+   * GET downloads them again from the Preview service.
+   *
+   * @param fileId is a {@link String} representing the id of the file.
+   */
+  public void invalidateResponseCache(String fileId) {
+    responseCache.invalidate(fileId);
+  }
+
+  /**
+   * Closes the pooled connections to the Preview service. The {@link BlobResponse}s not yet
+   * consumed will not be readable anymore.
+   */
+  @Override
+  public void close() throws IOException {
+    if (revalidationExecutor != null) {
+      revalidationExecutor.shutdownNow();
+    }
+    batchExecutor.shutdownNow();
+    httpClient.close();
+  }
+
+  /**
+   * Class that implements the builder pattern used to instantiate a configured
+   * {@link PreviewClient}. The {@link PreviewClient#atURL} methods create a client with the default
+   * configuration.
+   * <p>
+   * Every setter throws an {@link IllegalArgumentException} when the given value is out of range:
+   * sizes and capacities can not be negative, durations can not be null or negative, and the
+   * timeouts of the connections must be at least one millisecond.
+   */
+  public static class PreviewClientBuilder {
+
+    private final String  url;
+    private int           maxConnections = 20;
+    private boolean       traceContextPropagation;
+    private Duration      connectionRequestTimeout = Duration.ofSeconds(30);
+    private Duration      connectTimeout          = Duration.ofSeconds(10);
+    private Duration      socketTimeout           = Duration.ofSeconds(60);
+    private Duration      itemNotFoundCacheTtl    = Duration.ZERO;
+    private Duration      validationErrorCacheTtl = Duration.ZERO;
+    private int           negativeCacheSize       = 1000;
+    private Duration      queueTimeout            = Duration.ofSeconds(30);
+    private int           responseCacheSize;
+    private long          responseCacheMaxEntryBytes = 1024 * 1024;
+    private Duration      responseCacheFreshness  = Duration.ZERO;
+    private Duration      staleWhileRevalidate    = Duration.ZERO;
+    private int           warmUpConnections;
+    private boolean       warmUpOnBuild;
+    private Duration      warmUpTimeout           = Duration.ofSeconds(10);
+
+    private final Map<Priority, Integer> laneShares          = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> laneQueueCapacities = new EnumMap<>(Priority.class);
+
+    /**
+     * @param url is a {@link String} representing the url used to communicate with the Preview
+     * service in the form <code>protocol://ip:port</code>.
+     */
+    public PreviewClientBuilder(String url) {
+      this.url = url;
+      laneShares.put(Priority.INTERACTIVE, 100);
+      laneShares.put(Priority.NORMAL, 80);
+      laneShares.put(Priority.BACKGROUND, 50);
+      laneQueueCapacities.put(Priority.INTERACTIVE, 1000);
+      laneQueueCapacities.put(Priority.NORMAL, 500);
+      laneQueueCapacities.put(Priority.BACKGROUND, 100);
+    }
+
+    private static int requireNonNegative(
+      int value,
+      String name
+    ) {
+      if (value < 0) {
+        throw new IllegalArgumentException(name + " can not be negative");
+      }
+      return value;
+    }
+
+    private static Duration requireNonNegative(
+      Duration duration,
+      String name
+    ) {
+      if (duration == null || duration.isNegative()) {
+        throw new IllegalArgumentException(name + " can not be null or negative");
+      }
+      return duration;
+    }
+
+    /**
+     * A timeout of zero milliseconds would disable it, and the connections take the timeouts as
+     * int milliseconds.
+     */
+    private static Duration requireTimeout(
+      Duration timeout,
+      String name
+    ) {
+      if (timeout == null || timeout.toMillis() < 1 || timeout.toMillis() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(
+          name + " must be between 1 and " + Integer.MAX_VALUE + " milliseconds"
+        );
+      }
+      return timeout;
+    }
+
+    private static Priority requirePriority(Priority priority) {
+      if (priority == null) {
+        throw new IllegalArgumentException("priority can not be null");
+      }
+      return priority;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections opened towards the Preview service. It must be
+     * positive.
+     */
+    public PreviewClientBuilder setMaxConnections(int maxConnections) {
+      if (maxConnections < 1) {
+        throw new IllegalArgumentException("maxConnections must be positive");
+      }
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * Sets how long a request waits for a free connection of the pool before failing with an
+     * {@link InternalServerError}. The default is 30 seconds.
+     */
+    public PreviewClientBuilder setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+      this.connectionRequestTimeout = requireTimeout(
+        connectionRequestTimeout, "connectionRequestTimeout"
+      );
+      return this;
+    }
+
+    /**
+     * Sets how long opening a connection to the Preview service can take, TLS handshake excluded.
+     * The default is 10 seconds.
+     */
+    public PreviewClientBuilder setConnectTimeout(Duration connectTimeout) {
+      this.connectTimeout = requireTimeout(connectTimeout, "connectTimeout");
+      return this;
+    }
+
+    /**
+     * Sets the maximum inactivity between two packets received from the Preview service, both
+     * while waiting for the response and while reading its content. The default is 60 seconds.
+     */
+    public PreviewClientBuilder setSocketTimeout(Duration socketTimeout) {
+      this.socketTimeout = requireTimeout(socketTimeout, "socketTimeout");
+      return this;
+    }
+
+    /**
+     * Enables the propagation of a W3C <code>traceparent</code> header on every request so the
+     * {@link RequestTiming} collected by the client can be correlated with the server side traces.
+     */
+    public PreviewClientBuilder setTraceContextPropagation(boolean traceContextPropagation) {
+      this.traceContextPropagation = traceContextPropagation;
+      return this;
+    }
+
+    /**
+     * Sets how long a GET that failed with an {@link ItemNotFound} keeps failing locally without
+     * being sent again to the Preview service. The default {@link Duration#ZERO} disables it.
+     */
+    public PreviewClientBuilder setItemNotFoundCacheTtl(Duration itemNotFoundCacheTtl) {
+      this.itemNotFoundCacheTtl = requireNonNegative(itemNotFoundCacheTtl, "itemNotFoundCacheTtl");
+      return this;
+    }
+
+    /**
+     * Sets how long a GET that failed with a {@link ValidationError} keeps failing locally without
+     * being sent again to the Preview service. The default {@link Duration#ZERO} disables it.
+     */
+    public PreviewClientBuilder setValidationErrorCacheTtl(Duration validationErrorCacheTtl) {
+      this.validationErrorCacheTtl = requireNonNegative(
+        validationErrorCacheTtl, "validationErrorCacheTtl"
+      );
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of failed requests kept in the negative cache. When the cache is
+     * full the least recently used entry is evicted.
+     */
+    public PreviewClientBuilder setNegativeCacheSize(int negativeCacheSize) {
+      this.negativeCacheSize = requireNonNegative(negativeCacheSize, "negativeCacheSize");
+      return this;
+    }
+
+    /**
+     * Sets the maximum percentage, from 1 to 100, of the pooled connections that the requests of
+     * the given {@link Priority} can use at the same time. By default the interactive requests can
+     * use all the connections, the normal ones the 80% and the background ones the 50%.
+     */
+    public PreviewClientBuilder setConcurrencyShare(
+      Priority priority,
+      int percentage
+    ) {
+      if (percentage < 1 || percentage > 100) {
+        throw new IllegalArgumentException("the concurrency share must be between 1 and 100");
+      }
+      this.laneShares.put(requirePriority(priority), percentage);
+      return this;
+    }
+
+    /**
+     * Sets how many requests of the given {@link Priority} can wait for a free connection. When the
+     * queue is full the requests fail immediately with a {@link TooManyRequests}.
+     */
+    public PreviewClientBuilder setQueueCapacity(
+      Priority priority,
+      int capacity
+    ) {
+      this.laneQueueCapacities.put(
+        requirePriority(priority), requireNonNegative(capacity, "capacity")
+      );
+      return this;
+    }
+
+    /**
+     * Sets how long a request can wait in the queue of its {@link Priority} before failing with a
+     * {@link TooManyRequests}.
+     */
+    public PreviewClientBuilder setQueueTimeout(Duration queueTimeout) {
+      this.queueTimeout = requireNonNegative(queueTimeout, "queueTimeout");
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of GET responses kept in memory along with their
+     * <code>ETag</code> and <code>Last-Modified</code> validators. A cached response is
+     * revalidated with a conditional GET and served again when the Preview service replies
+     * <code>304 Not Modified</code>. The default 0 disables the response cache.
+     */
+    public PreviewClientBuilder setResponseCacheSize(int responseCacheSize) {
+      this.responseCacheSize = requireNonNegative(responseCacheSize, "responseCacheSize");
+      return this;
+    }
+
+    /**
+     * Sets the maximum size of a response body that can be cached. Bigger responses, or the ones
+     * without a known length, are streamed without being cached. The default is 1 MiB.
+     */
+    public PreviewClientBuilder setResponseCacheMaxEntryBytes(long responseCacheMaxEntryBytes) {
+      if (responseCacheMaxEntryBytes < 0) {
+        throw new IllegalArgumentException("responseCacheMaxEntryBytes can not be negative");
+      }
+      this.responseCacheMaxEntryBytes = responseCacheMaxEntryBytes;
+      return this;
+    }
+
+    /**
+     * Sets how long a cached response is served without contacting the Preview service. The
+     * default {@link Duration#ZERO} revalidates the response on every GET.
+     */
+    public PreviewClientBuilder setResponseCacheFreshness(Duration responseCacheFreshness) {
+      this.responseCacheFreshness = requireNonNegative(
+        responseCacheFreshness, "responseCacheFreshness"
+      );
+      return this;
+    }
+
+    /**
+     * Sets how long, after its freshness time, a cached response is still served immediately
+     * while it is revalidated in the background with a {@link Priority#BACKGROUND} request.
+     */
+    public PreviewClientBuilder setStaleWhileRevalidate(Duration staleWhileRevalidate) {
+      this.staleWhileRevalidate = requireNonNegative(staleWhileRevalidate, "staleWhileRevalidate");
+      return this;
+    }
+
+    /**
+     * Sets how many pooled connections {@link PreviewClient#warmUp()} opens in advance. It can not
+     * exceed the maximum number of connections.
+     */
+    public PreviewClientBuilder setWarmUpConnections(int warmUpConnections) {
+      this.warmUpConnections = requireNonNegative(warmUpConnections, "warmUpConnections");
+      return this;
+    }
+
+    /**
+     * Sets the overall time {@link PreviewClient#warmUp()} can spend opening the pooled
+     * connections and calling the health endpoints. The default is 10 seconds.
+     */
+    public PreviewClientBuilder setWarmUpTimeout(Duration warmUpTimeout) {
+      this.warmUpTimeout = requireTimeout(warmUpTimeout, "warmUpTimeout");
+      return this;
+    }
+
+    /**
+     * Makes {@link #build()} call {@link PreviewClient#warmUp()} before returning the client. The
+     * warm up timeout then starts with {@link #build()}, so the creation of the client, warm up
+     * included, takes at most the warm up timeout. A failed warm up does not prevent the creation
+     * of the client.
+     */
+    public PreviewClientBuilder setWarmUpOnBuild(boolean warmUpOnBuild) {
+      this.warmUpOnBuild = warmUpOnBuild;
+      return this;
+    }
+
+    public PreviewClient build() {
+      long warmUpDeadlineNanos = System.nanoTime() + warmUpTimeout.toNanos();
+      PreviewClient previewClient = new PreviewClient(this);
+      if (warmUpOnBuild) {
+        previewClient.warmUp(warmUpDeadlineNanos);
+      }
+      return previewClient;
+    }
+  }
 }
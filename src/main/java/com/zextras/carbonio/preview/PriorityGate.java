@@ -0,0 +1,145 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import com.zextras.carbonio.preview.exceptions.TooManyRequests;
+import com.zextras.carbonio.preview.queries.enums.Priority;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many requests of each {@link Priority} can use the connections to the Preview
+ * service at the same time. Each lane has a bounded FIFO queue and a share of the total
+ * concurrency. A request waits while a request with a higher priority is queued and could run, so
+ * the higher lanes are always served first.
+ */
+class PriorityGate {
+
+  private static final Priority[] LANES = Priority.values();
+
+  private final int           capacity;
+  private final int[]         shares;
+  private final int[]         queueCapacities;
+  private final int[]         running;
+  private final Deque<Object>[] queues;
+  private final long          queueTimeoutNanos;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition     laneFreed = lock.newCondition();
+  private int                 runningTotal;
+
+  PriorityGate(
+    int capacity,
+    Map<Priority, Integer> sharePercentages,
+    Map<Priority, Integer> queueCapacities,
+    Duration queueTimeout
+  ) {
+    this.capacity = capacity;
+    this.shares = new int[LANES.length];
+    this.queueCapacities = new int[LANES.length];
+    this.running = new int[LANES.length];
+    this.queues = createQueues();
+    this.queueTimeoutNanos = queueTimeout.toNanos();
+    for (Priority lane : LANES) {
+      int share = (int) Math.ceil(capacity * sharePercentages.get(lane) / 100.0);
+      this.shares[lane.ordinal()] = Math.max(1, Math.min(capacity, share));
+      this.queueCapacities[lane.ordinal()] = queueCapacities.get(lane);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Deque<Object>[] createQueues() {
+    Deque<Object>[] queues = new Deque[LANES.length];
+    for (int lane = 0; lane < LANES.length; lane++) {
+      queues[lane] = new ArrayDeque<>();
+    }
+    return queues;
+  }
+
+  /**
+   * Waits until a request of the given {@link Priority} can be sent. Every successful call must be
+   * paired with a {@link #release(Priority)}.
+   *
+   * @throws TooManyRequests if the queue of the lane is full or the request waited longer than the
+   * queue timeout.
+   */
+  void acquire(Priority priority) throws TooManyRequests {
+    int lane = priority.ordinal();
+    lock.lock();
+    try {
+      Deque<Object> queue = queues[lane];
+      if (queue.isEmpty() && canRun(lane)) {
+        start(lane);
+        return;
+      }
+      if (queue.size() >= queueCapacities[lane]) {
+        throw new TooManyRequests("the " + priority + " queue is full");
+      }
+
+      // The ticket keeps the requests of the same lane in arrival order
+      Object ticket = new Object();
+      queue.addLast(ticket);
+      try {
+        long remainingNanos = queueTimeoutNanos;
+        while (queue.peekFirst() != ticket || !canRun(lane)) {
+          if (remainingNanos <= 0) {
+            throw new TooManyRequests("timed out in the " + priority + " queue");
+          }
+          remainingNanos = laneFreed.awaitNanos(remainingNanos);
+        }
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+        throw new TooManyRequests("interrupted in the " + priority + " queue");
+      } finally {
+        queue.remove(ticket);
+        // The next request of this lane or of a lower one may now be the first allowed to run
+        laneFreed.signalAll();
+      }
+      start(lane);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void release(Priority priority) {
+    lock.lock();
+    try {
+      running[priority.ordinal()]--;
+      runningTotal--;
+      laneFreed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many requests of the given {@link Priority} can run at the same time.
+   */
+  int getShare(Priority priority) {
+    return shares[priority.ordinal()];
+  }
+
+  private boolean canRun(int lane) {
+    if (runningTotal >= capacity || running[lane] >= shares[lane]) {
+      return false;
+    }
+    for (int higherLane = 0; higherLane < lane; higherLane++) {
+      // A higher lane stuck on its own share does not hold back the capacity left free
+      if (!queues[higherLane].isEmpty() && running[higherLane] < shares[higherLane]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void start(int lane) {
+    running[lane]++;
+    runningTotal++;
+  }
+}
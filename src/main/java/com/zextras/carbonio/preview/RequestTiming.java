@@ -0,0 +1,250 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Collects the timing breakdown of a single request sent to the Preview service. Every phase is
+ * measured with {@link System#nanoTime()} so the values are not affected by wall-clock changes.
+ * <p>
+ * The request phases (pool lease, connect, request write and time to first byte) are complete
+ * once the {@link PreviewClient} returns. The download phase is complete only when the content of
+ * the {@link com.zextras.carbonio.preview.queries.BlobResponse} has been fully read or closed.
+ * <p>
+ * When a request fails, the phase it was in when it failed ends at the failure time, so the
+ * breakdown shows where the request spent its time before failing.
+ */
+public class RequestTiming {
+
+  static final String CONTEXT_ATTRIBUTE = "preview.request-timing";
+  static final String TRACE_PARENT_HEADER = "traceparent";
+
+  private static final long UNSET = -1L;
+
+  private final long    startNanos;
+  private final String  traceParent;
+  private volatile long dequeuedNanos      = UNSET;
+  private volatile long connectStartNanos  = UNSET;
+  private volatile long connectEndNanos    = UNSET;
+  private volatile long writeStartNanos    = UNSET;
+  private volatile long writeEndNanos      = UNSET;
+  private volatile long firstByteNanos     = UNSET;
+  private volatile long downloadEndNanos   = UNSET;
+  private volatile long failedNanos        = UNSET;
+  private volatile long bytesSent;
+  private volatile long bytesReceived;
+  private volatile InetSocketAddress endpoint;
+
+  RequestTiming(boolean withTraceContext) {
+    this.startNanos = System.nanoTime();
+    this.traceParent = withTraceContext
+      ? createTraceParent()
+      : null;
+  }
+
+  private static String createTraceParent() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return String.format(
+      "00-%016x%016x-%016x-01", random.nextLong(), random.nextLong(), random.nextLong()
+    );
+  }
+
+  private static Duration between(
+    long fromNanos,
+    long toNanos
+  ) {
+    return (fromNanos == UNSET || toNanos == UNSET)
+      ? Duration.ZERO
+      : Duration.ofNanos(toNanos - fromNanos);
+  }
+
+  /**
+   * @return the {@link Duration} of a phase started at the given time. A phase that never ended
+   * is closed at the failure time, if the request failed.
+   */
+  private Duration phase(
+    long fromNanos,
+    long toNanos
+  ) {
+    return between(
+      fromNanos,
+      toNanos == UNSET
+        ? failedNanos
+        : toNanos
+    );
+  }
+
+  void dequeued() {
+    dequeuedNanos = System.nanoTime();
+  }
+
+  void connectStarted() {
+    connectStartNanos = System.nanoTime();
+  }
+
+  void connectEnded() {
+    connectEndNanos = System.nanoTime();
+  }
+
+  void writeStarted(InetSocketAddress remoteAddress) {
+    writeStartNanos = System.nanoTime();
+    endpoint = remoteAddress;
+  }
+
+  void writeEnded(long sentBytes) {
+    writeEndNanos = System.nanoTime();
+    bytesSent = sentBytes;
+  }
+
+  void firstByteReceived() {
+    firstByteNanos = System.nanoTime();
+  }
+
+  void bytesReceived(long count) {
+    bytesReceived += count;
+  }
+
+  void downloadEnded() {
+    if (downloadEndNanos == UNSET) {
+      downloadEndNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * Marks the request as failed: the phase in progress ends now, and so does the request.
+   */
+  void failed() {
+    if (failedNanos == UNSET) {
+      failedNanos = System.nanoTime();
+    }
+    downloadEnded();
+  }
+
+  /**
+   * @return a {@link Duration} representing the time spent in the queue of the request
+   * {@link com.zextras.carbonio.preview.queries.enums.Priority} before being allowed to run.
+   */
+  public Duration getQueueWait() {
+    return phase(startNanos, dequeuedNanos);
+  }
+
+  /**
+   * @return a {@link Duration} representing the time spent waiting for a connection from the
+   * pool.
+   */
+  public Duration getPoolLease() {
+    return phase(
+      dequeuedNanos,
+      connectStartNanos == UNSET
+        ? writeStartNanos
+        : connectStartNanos
+    );
+  }
+
+  /**
+   * @return a {@link Duration} representing the time spent to open the TCP connection, including
+   * the TLS handshake. It is {@link Duration#ZERO} when a pooled connection has been reused.
+   */
+  public Duration getConnect() {
+    return phase(connectStartNanos, connectEndNanos);
+  }
+
+  /**
+   * @return a {@link Duration} representing the time spent to write the request line, the headers
+   * and the body (if any) on the connection.
+   */
+  public Duration getRequestWrite() {
+    return phase(writeStartNanos, writeEndNanos);
+  }
+
+  /**
+   * @return a {@link Duration} representing the time elapsed between the end of the request write
+   * and the reception of the response headers. It includes the server processing time.
+   */
+  public Duration getTimeToFirstByte() {
+    return phase(writeEndNanos, firstByteNanos);
+  }
+
+  /**
+   * @return an {@link Optional} containing the {@link Duration} spent to read the response body,
+   * or empty if the body has not been completely read or closed yet.
+   */
+  public Optional<Duration> getDownload() {
+    return downloadEndNanos == UNSET
+      ? Optional.empty()
+      : Optional.of(between(firstByteNanos, downloadEndNanos));
+  }
+
+  /**
+   * @return a {@link Duration} representing the time elapsed from the start of the request to the
+   * end of the download, or to now if the download has not completed yet.
+   */
+  public Duration getTotal() {
+    long end = downloadEndNanos == UNSET
+      ? System.nanoTime()
+      : downloadEndNanos;
+    return between(startNanos, end);
+  }
+
+  /**
+   * @return true if the request has been sent on a connection taken from the pool without opening
+   * a new one.
+   */
+  public boolean isConnectionReused() {
+    return connectStartNanos == UNSET && writeStartNanos != UNSET;
+  }
+
+  /**
+   * @return true if the request failed before its response was received.
+   */
+  public boolean isFailed() {
+    return failedNanos != UNSET;
+  }
+
+  /**
+   * @return an {@link Optional} containing the {@link InetSocketAddress} resolved for the Preview
+   * service, or empty if the request failed before a connection was available.
+   */
+  public Optional<InetSocketAddress> getEndpoint() {
+    return Optional.ofNullable(endpoint);
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /**
+   * @return an {@link Optional} containing the W3C <code>traceparent</code> value sent along with
+   * the request, or empty if the trace context propagation is disabled.
+   */
+  public Optional<String> getTraceParent() {
+    return Optional.ofNullable(traceParent);
+  }
+
+  @Override
+  public String toString() {
+    return "RequestTiming{"
+      + "queueWait=" + getQueueWait().toMillis() + "ms"
+      + ", poolLease=" + getPoolLease().toMillis() + "ms"
+      + ", connect=" + getConnect().toMillis() + "ms"
+      + ", requestWrite=" + getRequestWrite().toMillis() + "ms"
+      + ", timeToFirstByte=" + getTimeToFirstByte().toMillis() + "ms"
+      + ", download=" + getDownload().map(d -> d.toMillis() + "ms").orElse("pending")
+      + ", total=" + getTotal().toMillis() + "ms"
+      + ", failed=" + isFailed()
+      + ", endpoint=" + endpoint
+      + ", bytesSent=" + bytesSent
+      + ", bytesReceived=" + bytesReceived
+      + '}';
+  }
+}
@@ -0,0 +1,307 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * A small LRU cache of the GET responses of the Preview service, together with their
+ * <code>ETag</code> and <code>Last-Modified</code> validators.
+ * <p>
+ * An entry is served as it is while it is fresh. Once the freshness time is over, the entry is
+ * still served for the stale-while-revalidate time while it is revalidated in the background.
+ * After that the entry is only used to send a conditional GET, and it is served again if the
+ * Preview service replies with <code>304 Not Modified</code>.
+ * <p>
+ * A response is cached only if it can be reused: it must have a validator or the freshness time
+ * must be positive, and it must not be marked with <code>Cache-Control: no-store</code>.
+ */
+class ResponseCache {
+
+  private final int                         maxEntries;
+  private final long                        maxEntryBytes;
+  private final long                        freshNanos;
+  private final long                        staleNanos;
+  private final Map<String, CachedResponse> entries;
+  private final Set<String>                 revalidating = ConcurrentHashMap.newKeySet();
+  // Guarded by entries: the generation of the last invalidation of each recently invalidated file
+  private final Map<String, Long>           invalidations;
+  private long                              generation;
+  private long                              forgottenGeneration;
+
+  ResponseCache(
+    int maxEntries,
+    long maxEntryBytes,
+    Duration freshness,
+    Duration staleWhileRevalidate
+  ) {
+    this.maxEntries = maxEntries;
+    this.maxEntryBytes = maxEntryBytes;
+    this.freshNanos = freshness.toNanos();
+    this.staleNanos = staleWhileRevalidate.toNanos();
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    this.invalidations = new LinkedHashMap<>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        if (size() > Math.max(1, maxEntries)) {
+          forgottenGeneration = Math.max(forgottenGeneration, eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  static String createKey(
+    String fileOwnerId,
+    String requestUri
+  ) {
+    return fileOwnerId + ' ' + requestUri;
+  }
+
+  boolean isEnabled() {
+    return maxEntries > 0;
+  }
+
+  /**
+   * @return true if the body of the given successful response can be buffered and cached: its
+   * length must be known and small enough, and the cached entry must be reusable.
+   */
+  boolean accepts(HttpResponse response) {
+    if (!isEnabled() || response.getEntity() == null) {
+      return false;
+    }
+    long contentLength = response.getEntity().getContentLength();
+    if (contentLength < 0 || contentLength > maxEntryBytes) {
+      return false;
+    }
+    for (Header cacheControl : response.getHeaders(HttpHeaders.CACHE_CONTROL)) {
+      for (HeaderElement directive : cacheControl.getElements()) {
+        if ("no-store".equalsIgnoreCase(directive.getName())) {
+          return false;
+        }
+      }
+    }
+    return freshNanos > 0
+      || response.containsHeader(HttpHeaders.ETAG)
+      || response.containsHeader(HttpHeaders.LAST_MODIFIED);
+  }
+
+  /**
+   * @return the {@link Target} of a GET request, bound to the current invalidation generation so
+   * a response received after an invalidation of the same file is not cached.
+   */
+  Target createTarget(
+    String key,
+    String fileId,
+    CachedResponse cachedEntry
+  ) {
+    synchronized (entries) {
+      return new Target(key, fileId, cachedEntry, generation);
+    }
+  }
+
+  Optional<CachedResponse> get(String key) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    synchronized (entries) {
+      return Optional.ofNullable(entries.get(key));
+    }
+  }
+
+  /**
+   * Stores the entry of the given {@link Target}, unless its file has been invalidated after the
+   * target was created.
+   */
+  void put(
+    Target target,
+    CachedResponse entry
+  ) {
+    synchronized (entries) {
+      Long invalidatedAt = invalidations.get(target.fileId);
+      boolean invalidated = (invalidatedAt != null && invalidatedAt > target.generation)
+        || target.generation < forgottenGeneration;
+      if (!invalidated) {
+        entries.put(target.key, entry);
+      }
+    }
+  }
+
+  void remove(String key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+
+  void invalidate(String fileId) {
+    synchronized (entries) {
+      entries.values().removeIf(entry -> entry.fileId.equals(fileId));
+      generation++;
+      invalidations.remove(fileId);
+      invalidations.put(fileId, generation);
+    }
+  }
+
+  /**
+   * Marks the entry with the given key as being revalidated.
+   *
+   * @return false if another revalidation of the same entry is already running.
+   */
+  boolean startRevalidation(String key) {
+    return revalidating.add(key);
+  }
+
+  void endRevalidation(String key) {
+    revalidating.remove(key);
+  }
+
+  CachedResponse createEntry(
+    String fileId,
+    byte[] body,
+    String mimeType,
+    HttpResponse response
+  ) {
+    return new CachedResponse(
+      fileId,
+      body,
+      mimeType,
+      response.containsHeader(HttpHeaders.ETAG)
+        ? response.getFirstHeader(HttpHeaders.ETAG).getValue()
+        : null,
+      response.containsHeader(HttpHeaders.LAST_MODIFIED)
+        ? response.getFirstHeader(HttpHeaders.LAST_MODIFIED).getValue()
+        : null,
+      System.nanoTime()
+    );
+  }
+
+  /**
+   * The cache slot of a GET request: where to store its response and the entry used to send it as
+   * a conditional request, if any.
+   */
+  static class Target {
+
+    private final String         key;
+    private final String         fileId;
+    private final CachedResponse cachedEntry;
+    private final long           generation;
+
+    private Target(
+      String key,
+      String fileId,
+      CachedResponse cachedEntry,
+      long generation
+    ) {
+      this.key = key;
+      this.fileId = fileId;
+      this.cachedEntry = cachedEntry;
+      this.generation = generation;
+    }
+
+    String getKey() {
+      return key;
+    }
+
+    String getFileId() {
+      return fileId;
+    }
+
+    Optional<CachedResponse> getCachedEntry() {
+      return Optional.ofNullable(cachedEntry);
+    }
+  }
+
+  class CachedResponse {
+
+    private final String fileId;
+    private final byte[] body;
+    private final String mimeType;
+    private final String eTag;
+    private final String lastModified;
+    private final long   storedAtNanos;
+
+    private CachedResponse(
+      String fileId,
+      byte[] body,
+      String mimeType,
+      String eTag,
+      String lastModified,
+      long storedAtNanos
+    ) {
+      this.fileId = fileId;
+      this.body = body;
+      this.mimeType = mimeType;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+      this.storedAtNanos = storedAtNanos;
+    }
+
+    boolean isFresh() {
+      return System.nanoTime() - storedAtNanos < freshNanos;
+    }
+
+    boolean isServableWhileRevalidating() {
+      return System.nanoTime() - storedAtNanos < freshNanos + staleNanos;
+    }
+
+    /**
+     * Adds the <code>If-None-Match</code> and <code>If-Modified-Since</code> headers to the
+     * request so the Preview service can reply with <code>304 Not Modified</code>.
+     */
+    void addConditionalHeaders(HttpRequestBase request) {
+      if (eTag != null) {
+        request.setHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+      }
+      if (lastModified != null) {
+        request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+      }
+    }
+
+    /**
+     * @return a copy of this entry that is fresh again, after the Preview service confirmed with
+     * the given <code>304 Not Modified</code> response that it has not been modified. The
+     * validators sent along with the 304 replace the stored ones, as required by RFC 7234.
+     */
+    CachedResponse refresh(HttpResponse notModified) {
+      return new CachedResponse(
+        fileId,
+        body,
+        mimeType,
+        notModified.containsHeader(HttpHeaders.ETAG)
+          ? notModified.getFirstHeader(HttpHeaders.ETAG).getValue()
+          : eTag,
+        notModified.containsHeader(HttpHeaders.LAST_MODIFIED)
+          ? notModified.getFirstHeader(HttpHeaders.LAST_MODIFIED).getValue()
+          : lastModified,
+        System.nanoTime()
+      );
+    }
+
+    BlobResponse toBlobResponse(RequestTiming timing) {
+      ByteArrayEntity entity = new ByteArrayEntity(body);
+      entity.setContentType(mimeType);
+      return new BlobResponse(new ByteArrayInputStream(body), entity, timing);
+    }
+  }
+}
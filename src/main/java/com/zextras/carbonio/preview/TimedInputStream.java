@@ -0,0 +1,58 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Wraps the content of a response to count the bytes received and to mark the end of the download
+ * phase in the {@link RequestTiming} when the stream reaches its end or it is closed. At that point
+ * the given callback is run, once, to signal that the request does not use its connection anymore.
+ */
+class TimedInputStream extends ProxyInputStream {
+
+  private final RequestTiming timing;
+  private final Runnable      onDownloadEnded;
+  private boolean             downloadEnded;
+
+  TimedInputStream(
+    InputStream content,
+    RequestTiming timing,
+    Runnable onDownloadEnded
+  ) {
+    super(content);
+    this.timing = timing;
+    this.onDownloadEnded = onDownloadEnded;
+  }
+
+  @Override
+  protected void afterRead(int n) {
+    if (n == IOUtils.EOF) {
+      endDownload();
+    } else {
+      timing.bytesReceived(n);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      endDownload();
+    }
+  }
+
+  private void endDownload() {
+    if (!downloadEnded) {
+      downloadEnded = true;
+      timing.downloadEnded();
+      onDownloadEnded.run();
+    }
+  }
+}
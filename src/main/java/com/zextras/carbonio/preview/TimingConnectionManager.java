@@ -0,0 +1,35 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import java.io.IOException;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A {@link PoolingHttpClientConnectionManager} that records in the {@link RequestTiming} of the
+ * current request how long it took to open a new connection (TCP connect and TLS handshake).
+ */
+class TimingConnectionManager extends PoolingHttpClientConnectionManager {
+
+  @Override
+  public void connect(
+    HttpClientConnection managedConn,
+    HttpRoute route,
+    int connectTimeout,
+    HttpContext context
+  ) throws IOException {
+    RequestTiming timing = (RequestTiming) context.getAttribute(RequestTiming.CONTEXT_ATTRIBUTE);
+    if (timing != null) {
+      timing.connectStarted();
+    }
+    super.connect(managedConn, route, connectTimeout, context);
+    if (timing != null) {
+      timing.connectEnded();
+    }
+  }
+}
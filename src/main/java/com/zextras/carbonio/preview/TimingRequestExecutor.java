@@ -0,0 +1,62 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpInetConnection;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * An {@link HttpRequestExecutor} that records in the {@link RequestTiming} of the current request
+ * the time spent writing the request and waiting for the response headers, together with the
+ * resolved remote address and the number of bytes sent.
+ */
+class TimingRequestExecutor extends HttpRequestExecutor {
+
+  @Override
+  protected HttpResponse doSendRequest(
+    HttpRequest request,
+    HttpClientConnection conn,
+    HttpContext context
+  ) throws IOException, HttpException {
+    RequestTiming timing = (RequestTiming) context.getAttribute(RequestTiming.CONTEXT_ATTRIBUTE);
+    if (timing == null) {
+      return super.doSendRequest(request, conn, context);
+    }
+
+    InetSocketAddress remoteAddress = null;
+    if (conn instanceof HttpInetConnection) {
+      HttpInetConnection inetConnection = (HttpInetConnection) conn;
+      remoteAddress = new InetSocketAddress(
+        inetConnection.getRemoteAddress(), inetConnection.getRemotePort()
+      );
+    }
+    long sentBefore = conn.getMetrics().getSentBytesCount();
+    timing.writeStarted(remoteAddress);
+    HttpResponse response = super.doSendRequest(request, conn, context);
+    timing.writeEnded(conn.getMetrics().getSentBytesCount() - sentBefore);
+    return response;
+  }
+
+  @Override
+  protected HttpResponse doReceiveResponse(
+    HttpRequest request,
+    HttpClientConnection conn,
+    HttpContext context
+  ) throws HttpException, IOException {
+    HttpResponse response = super.doReceiveResponse(request, conn, context);
+    RequestTiming timing = (RequestTiming) context.getAttribute(RequestTiming.CONTEXT_ATTRIBUTE);
+    if (timing != null) {
+      timing.firstByteReceived();
+    }
+    return response;
+  }
+}
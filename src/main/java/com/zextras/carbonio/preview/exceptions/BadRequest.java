@@ -4,6 +4,16 @@
 
 package com.zextras.carbonio.preview.exceptions;
 
-public class BadRequest extends Exception {
+import com.zextras.carbonio.preview.RequestTiming;
+
+public class BadRequest extends PreviewException {
+
+  public BadRequest(RequestTiming requestTiming) {
+    super(requestTiming);
+  }
+
+  public BadRequest() {
+
+  }
 
 }
@@ -4,10 +4,23 @@
 
 package com.zextras.carbonio.preview.exceptions;
 
-public class InternalServerError extends Exception {
+import com.zextras.carbonio.preview.RequestTiming;
+
+public class InternalServerError extends PreviewException {
+
+  public InternalServerError(
+    Throwable cause,
+    RequestTiming requestTiming
+  ) {
+    super(cause, requestTiming);
+  }
+
+  public InternalServerError(RequestTiming requestTiming) {
+    super(requestTiming);
+  }
 
   public InternalServerError(Throwable cause) {
-    super(cause);
+    super(cause, null);
   }
 
   public InternalServerError() {
@@ -4,6 +4,16 @@
 
 package com.zextras.carbonio.preview.exceptions;
 
-public class ItemNotFound extends Exception {
+import com.zextras.carbonio.preview.RequestTiming;
+
+public class ItemNotFound extends PreviewException {
+
+  public ItemNotFound(RequestTiming requestTiming) {
+    super(requestTiming);
+  }
+
+  public ItemNotFound() {
+
+  }
 
 }
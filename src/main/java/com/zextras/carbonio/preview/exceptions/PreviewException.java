@@ -0,0 +1,50 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.exceptions;
+
+import com.zextras.carbonio.preview.RequestTiming;
+import java.util.Optional;
+
+/**
+ * Base class of the errors returned by the {@link com.zextras.carbonio.preview.PreviewClient}. It
+ * carries the {@link RequestTiming} of the failed request, if the request was queued or sent.
+ */
+public abstract class PreviewException extends Exception {
+
+  private final transient RequestTiming requestTiming;
+
+  protected PreviewException() {
+    this.requestTiming = null;
+  }
+
+  protected PreviewException(String message) {
+    super(message);
+    this.requestTiming = null;
+  }
+
+  protected PreviewException(
+    String message,
+    RequestTiming requestTiming
+  ) {
+    super(message);
+    this.requestTiming = requestTiming;
+  }
+
+  protected PreviewException(RequestTiming requestTiming) {
+    this.requestTiming = requestTiming;
+  }
+
+  protected PreviewException(
+    Throwable cause,
+    RequestTiming requestTiming
+  ) {
+    super(cause);
+    this.requestTiming = requestTiming;
+  }
+
+  public Optional<RequestTiming> getRequestTiming() {
+    return Optional.ofNullable(requestTiming);
+  }
+}
@@ -0,0 +1,26 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.exceptions;
+
+import com.zextras.carbonio.preview.RequestTiming;
+
+public class TooManyRequests extends PreviewException {
+
+  public TooManyRequests(String message) {
+    super(message);
+  }
+
+  public TooManyRequests(
+    String message,
+    RequestTiming requestTiming
+  ) {
+    super(message, requestTiming);
+  }
+
+  public TooManyRequests() {
+
+  }
+
+}
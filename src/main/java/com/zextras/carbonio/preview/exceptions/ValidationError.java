@@ -4,5 +4,20 @@
 
 package com.zextras.carbonio.preview.exceptions;
 
-public class ValidationError extends Exception{
+import com.zextras.carbonio.preview.RequestTiming;
+
+public class ValidationError extends PreviewException {
+
+  public ValidationError(RequestTiming requestTiming) {
+    super(requestTiming);
+  }
+
+  public ValidationError(String message) {
+    super(message);
+  }
+
+  public ValidationError() {
+
+  }
+
 }
@@ -0,0 +1,45 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.queries;
+
+import java.io.InputStream;
+
+/**
+ * A file to send to the Preview service as part of a batch, together with the {@link Query} used
+ * to process it.
+ */
+public class BlobRequest {
+
+  private final InputStream blob;
+  private final Query       query;
+  private final String      fileName;
+
+  /**
+   * @param blob is a {@link InputStream} that contains the file.
+   * @param query is a {@link Query} that specifies the query parameters.
+   * @param fileName is a {@link String} representing the name of the file.
+   */
+  public BlobRequest(
+    InputStream blob,
+    Query query,
+    String fileName
+  ) {
+    this.blob = blob;
+    this.query = query;
+    this.fileName = fileName;
+  }
+
+  public InputStream getBlob() {
+    return blob;
+  }
+
+  public Query getQuery() {
+    return query;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+}
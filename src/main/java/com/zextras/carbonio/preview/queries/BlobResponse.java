@@ -4,29 +4,69 @@
 
 package com.zextras.carbonio.preview.queries;
 
+import com.zextras.carbonio.preview.RequestTiming;
 import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 
-public class BlobResponse {
+/**
+ * The content returned by the Preview service. The content stream keeps a pooled connection busy
+ * until it is fully read or closed, so a {@link BlobResponse} must always be closed, for example
+ * using a try-with-resources statement.
+ */
+public class BlobResponse implements Closeable {
 
   private final InputStream content;
   private final long length;
   private final String mimeType;
+  private final RequestTiming requestTiming;
 
   public BlobResponse(HttpEntity entity) throws IOException {
     this(
             entity.getContent(),
             entity.getContentLength(),
-            entity.getContentType().getValue()
+            getMimeType(entity),
+            null
     );
   }
 
-  private BlobResponse(InputStream content, long length, String mimeType) {
+  /**
+   * Creates a {@link BlobResponse} whose content is already wrapped to complete the download phase
+   * of the given {@link RequestTiming}.
+   */
+  public BlobResponse(InputStream content, HttpEntity entity, RequestTiming requestTiming) {
+    this(
+            content,
+            entity.getContentLength(),
+            getMimeType(entity),
+            requestTiming
+    );
+  }
+
+  private BlobResponse(
+          InputStream content,
+          long length,
+          String mimeType,
+          RequestTiming requestTiming
+  ) {
     this.content = content;
     this.length = length;
     this.mimeType = mimeType;
+    this.requestTiming = requestTiming;
+  }
+
+  /**
+   * @return the content type of the given entity, or <code>application/octet-stream</code> if the
+   * Preview service did not send one.
+   */
+  private static String getMimeType(HttpEntity entity) {
+    return entity.getContentType() == null
+      ? ContentType.APPLICATION_OCTET_STREAM.getMimeType()
+      : entity.getContentType().getValue();
   }
 
   public InputStream getContent() {
@@ -40,4 +80,17 @@ public class BlobResponse {
   public String getMimeType() {
     return mimeType;
   }
+
+  public Optional<RequestTiming> getRequestTiming() {
+    return Optional.ofNullable(requestTiming);
+  }
+
+  /**
+   * Closes the content stream giving its connection back to the pool of the
+   * {@link com.zextras.carbonio.preview.PreviewClient}.
+   */
+  @Override
+  public void close() throws IOException {
+    content.close();
+  }
 }
@@ -5,10 +5,12 @@
 package com.zextras.carbonio.preview.queries;
 
 import com.zextras.carbonio.preview.queries.enums.Format;
+import com.zextras.carbonio.preview.queries.enums.Priority;
 import com.zextras.carbonio.preview.queries.enums.Quality;
 import com.zextras.carbonio.preview.queries.enums.ServiceType;
 import com.zextras.carbonio.preview.queries.enums.Shape;
 
+import java.util.Objects;
 import java.util.Optional;
 
 /**
@@ -33,6 +35,8 @@ public class Query {
   //Pdf optional
   private final Integer     firstPage;
   private final Integer     lastPage;
+  //Client side only, never sent to the service
+  private final Priority    priority;
 
 
   private Query(QueryBuilder builder) {
@@ -47,6 +51,7 @@ public class Query {
     this.crop = builder.crop;
     this.firstPage = builder.firstPage;
     this.lastPage = builder.lastPage;
+    this.priority = builder.priority;
   }
 
   public Optional<String> getFileOwnerId() {
@@ -109,6 +114,10 @@ public class Query {
     return Optional.ofNullable(firstPage);
   }
 
+  public Priority getPriority() {
+    return priority;
+  }
+
   /**
    * Creates a valid String from the Query object. It formats the various field of the object
    * Into a valid HTTP url path.
@@ -168,6 +177,8 @@ public class Query {
     //pdf optional
     private Integer     firstPage;
     private Integer     lastPage;
+    //client side only
+    private Priority    priority = Priority.NORMAL;
 
     public QueryBuilder(
       String fileOwnerId,
@@ -276,6 +287,17 @@ public class Query {
       return this;
     }
 
+    /**
+     * Sets the priority lane used by the {@link com.zextras.carbonio.preview.PreviewClient} to
+     * send the query. The default is {@link Priority#NORMAL}.
+     *
+     * @throws NullPointerException if the given priority is null.
+     */
+    public QueryBuilder setPriority(Priority priority) {
+      this.priority = Objects.requireNonNull(priority, "priority can not be null");
+      return this;
+    }
+
     public Query build() {
       return new Query(this);
     }
@@ -0,0 +1,143 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.queries;
+
+import com.zextras.carbonio.preview.exceptions.ValidationError;
+import com.zextras.carbonio.preview.queries.enums.Endpoint;
+import io.vavr.control.Try;
+
+/**
+ * Checks a {@link Query} against the rules the Preview service applies on each {@link Endpoint},
+ * so an invalid query is rejected before any network call. Every check only looks at the fields
+ * of the query, so the validation has a constant cost.
+ * <p>
+ * The {@link com.zextras.carbonio.preview.queries.enums.Format},
+ * {@link com.zextras.carbonio.preview.queries.enums.Shape} and
+ * {@link com.zextras.carbonio.preview.queries.enums.Quality} values are checked only against the
+ * endpoints accepting them: every value of each enum is accepted by the service wherever the
+ * parameter itself is accepted, so there is no rule on their combinations to enforce.
+ */
+public final class QueryValidator {
+
+  private QueryValidator() {
+  }
+
+  /**
+   * Validates a {@link Query} that will be sent with an HTTP GET: the file owner, the file id and
+   * the version are needed to fetch the file from the storage.
+   *
+   * @param query is the {@link Query} to validate.
+   * @param endpoint is the {@link Endpoint} the query will be sent to.
+   *
+   * @return a {@link Try} containing the given query if it is valid, otherwise a failure with a
+   * {@link ValidationError} describing the first violated rule.
+   */
+  public static Try<Query> validateForGet(
+    Query query,
+    Endpoint endpoint
+  ) {
+    if (query.getFileOwnerId().map(String::isEmpty).orElse(true)) {
+      return invalid("the file owner id is required");
+    }
+    if (query.getFileId().map(String::isEmpty).orElse(true)) {
+      return invalid("the file id is required");
+    }
+    if (!query.getVersion().isPresent()) {
+      return invalid("the version is required");
+    }
+    if (query.getVersion().get() < 1) {
+      return invalid("the version must be greater than zero");
+    }
+    return validateForPost(query, endpoint);
+  }
+
+  /**
+   * Validates a {@link Query} that will be sent with an HTTP POST along with the blob to process.
+   *
+   * @param query is the {@link Query} to validate.
+   * @param endpoint is the {@link Endpoint} the query will be sent to.
+   *
+   * @return a {@link Try} containing the given query if it is valid, otherwise a failure with a
+   * {@link ValidationError} describing the first violated rule.
+   */
+  public static Try<Query> validateForPost(
+    Query query,
+    Endpoint endpoint
+  ) {
+    if (query.getPreviewArea().isPresent()) {
+      if (!endpoint.isImageOutput()) {
+        return invalid("the preview area is not supported by " + endpoint);
+      }
+      if (!isValidArea(query.getPreviewArea().get())) {
+        return invalid(
+          "the preview area must have the form <width>x<height> with both sizes greater than zero"
+        );
+      }
+    } else if (endpoint == Endpoint.IMAGE_PREVIEW || endpoint.isThumbnail()) {
+      return invalid("the preview area is required by " + endpoint);
+    }
+
+    if (query.getShape().isPresent() && !endpoint.isThumbnail()) {
+      return invalid("the shape is supported only by thumbnails");
+    }
+    if (!endpoint.isImageOutput()
+      && (query.getOutputFormat().isPresent()
+      || query.getQuality().isPresent()
+      || query.getCrop().isPresent())
+    ) {
+      return invalid("the output format, quality and crop are not supported by " + endpoint);
+    }
+
+    if (query.getFirstPage().isPresent() || query.getLastPage().isPresent()) {
+      if (!endpoint.isPageRange()) {
+        return invalid("the page range is not supported by " + endpoint);
+      }
+      int firstPage = query.getFirstPage().orElse(1);
+      int lastPage = query.getLastPage().orElse(0);
+      if (firstPage < 1) {
+        return invalid("the first page must be greater than zero");
+      }
+      // A last page equal to zero means until the end of the file
+      if (lastPage < 0 || (lastPage > 0 && firstPage > lastPage)) {
+        return invalid("the first page must be lower or equal than the last page");
+      }
+    }
+
+    return Try.success(query);
+  }
+
+  private static boolean isValidArea(String area) {
+    int separator = area.indexOf('x');
+    return isPositiveNumber(area, 0, separator)
+      && isPositiveNumber(area, separator + 1, area.length());
+  }
+
+  /**
+   * @return true if the characters between the given indexes are ASCII digits representing a
+   * number greater than zero.
+   */
+  private static boolean isPositiveNumber(
+    String value,
+    int from,
+    int to
+  ) {
+    if (from >= to) {
+      return false;
+    }
+    boolean positive = false;
+    for (int i = from; i < to; i++) {
+      char digit = value.charAt(i);
+      if (digit < '0' || digit > '9') {
+        return false;
+      }
+      positive |= digit != '0';
+    }
+    return positive;
+  }
+
+  private static Try<Query> invalid(String reason) {
+    return Try.failure(new ValidationError(reason));
+  }
+}
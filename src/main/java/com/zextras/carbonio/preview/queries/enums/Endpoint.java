@@ -0,0 +1,55 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.queries.enums;
+
+/**
+ * The Preview service endpoints a {@link com.zextras.carbonio.preview.queries.Query} can be sent
+ * to. Each endpoint accepts a different set of query parameters.
+ */
+public enum Endpoint {
+  IMAGE_PREVIEW(false, true, false),
+  IMAGE_THUMBNAIL(true, true, false),
+  PDF_PREVIEW(false, false, true),
+  PDF_THUMBNAIL(true, true, false),
+  DOCUMENT_PREVIEW(false, false, true),
+  DOCUMENT_THUMBNAIL(true, true, false);
+
+  private final boolean thumbnail;
+  private final boolean imageOutput;
+  private final boolean pageRange;
+
+  Endpoint(
+    boolean thumbnail,
+    boolean imageOutput,
+    boolean pageRange
+  ) {
+    this.thumbnail = thumbnail;
+    this.imageOutput = imageOutput;
+    this.pageRange = pageRange;
+  }
+
+  /**
+   * @return true if the endpoint generates a thumbnail, so it requires a preview area and accepts
+   * a {@link Shape}.
+   */
+  public boolean isThumbnail() {
+    return thumbnail;
+  }
+
+  /**
+   * @return true if the endpoint returns an image, so it accepts a {@link Format} and a
+   * {@link Quality}.
+   */
+  public boolean isImageOutput() {
+    return imageOutput;
+  }
+
+  /**
+   * @return true if the endpoint accepts the first page and last page parameters.
+   */
+  public boolean isPageRange() {
+    return pageRange;
+  }
+}
@@ -0,0 +1,15 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.queries.enums;
+
+/**
+ * The priority lanes of the requests sent by a {@link com.zextras.carbonio.preview.PreviewClient},
+ * from the most to the least urgent.
+ */
+public enum Priority {
+  INTERACTIVE,
+  NORMAL,
+  BACKGROUND
+}
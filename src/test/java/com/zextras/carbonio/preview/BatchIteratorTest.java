@@ -0,0 +1,228 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zextras.carbonio.preview.exceptions.InternalServerError;
+import com.zextras.carbonio.preview.queries.BlobRequest;
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import com.zextras.carbonio.preview.queries.Query;
+import com.zextras.carbonio.preview.queries.Query.QueryBuilder;
+import io.vavr.control.Try;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class BatchIteratorTest {
+
+  private static final Pattern FILE_NAME = Pattern.compile("filename=\"(file-(\\d+))\"");
+
+  private final AtomicInteger running       = new AtomicInteger();
+  private final AtomicInteger maxRunning    = new AtomicInteger();
+  private final Set<Integer>  clientPorts   = ConcurrentHashMap.newKeySet();
+  private volatile int        fileCount;
+  private volatile int        failingFile   = -1;
+  private HttpServer          previewService;
+  private ExecutorService     previewServiceExecutor;
+
+  /**
+   * A file that remembers whether it has been closed.
+   */
+  private static class TrackedBlob extends ByteArrayInputStream {
+
+    private volatile boolean closed;
+
+    TrackedBlob(String content) {
+      super(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  private static Query getQuery() {
+    return new QueryBuilder().setPreviewArea("10x10").build();
+  }
+
+  private static String readContent(Try<BlobResponse> result) throws IOException {
+    try (BlobResponse blobResponse = result.get()) {
+      return new String(blobResponse.getContent().readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Starts a fake Preview service that replies with <code>thumbnail of file-N</code>. The first
+   * files of the batch are the slowest to be processed, so they complete last.
+   */
+  @BeforeEach
+  void startPreviewService() throws IOException {
+    previewService = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    previewService.createContext("/preview/", exchange -> {
+      int runningNow = running.incrementAndGet();
+      maxRunning.accumulateAndGet(runningNow, Math::max);
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      Matcher fileName = FILE_NAME.matcher(request);
+      fileName.find();
+      int file = Integer.parseInt(fileName.group(2));
+      try {
+        Thread.sleep(20L * (fileCount - file));
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+      running.decrementAndGet();
+
+      byte[] body = ("thumbnail of " + fileName.group(1)).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+      exchange.sendResponseHeaders(file == failingFile ? 500 : 200, body.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+      exchange.close();
+    });
+    previewServiceExecutor = Executors.newCachedThreadPool();
+    previewService.setExecutor(previewServiceExecutor);
+    previewService.start();
+  }
+
+  @AfterEach
+  void stopPreviewService() {
+    previewService.stop(0);
+    previewServiceExecutor.shutdownNow();
+  }
+
+  private PreviewClient createClient(int maxConnections) {
+    return new PreviewClient.PreviewClientBuilder(
+      "http://127.0.0.1:" + previewService.getAddress().getPort()
+    )
+      .setMaxConnections(maxConnections)
+      .build();
+  }
+
+  private List<BlobRequest> createBatch(
+    int size,
+    List<TrackedBlob> blobs
+  ) {
+    fileCount = size;
+    List<BlobRequest> blobRequests = new ArrayList<>();
+    for (int file = 0; file < size; file++) {
+      TrackedBlob blob = new TrackedBlob("content of file-" + file);
+      blobs.add(blob);
+      blobRequests.add(new BlobRequest(blob, getQuery(), "file-" + file));
+    }
+    return blobRequests;
+  }
+
+  @Test
+  void givenABatchTheResultsShouldFollowTheOrderOfTheFiles() throws IOException {
+    List<TrackedBlob> blobs = new ArrayList<>();
+    try (PreviewClient client = createClient(4)) {
+
+      List<Try<BlobResponse>> results = client
+        .postThumbnailsOfImages(createBatch(8, blobs))
+        .toJavaList();
+
+      assertEquals(8, results.size());
+      for (int file = 0; file < 8; file++) {
+        assertEquals("thumbnail of file-" + file, readContent(results.get(file)));
+      }
+    }
+  }
+
+  @Test
+  void givenABatchTheFilesShouldBeSentConcurrentlyUpToTheLaneShare() throws IOException {
+    try (PreviewClient client = createClient(5)) {
+
+      client.postThumbnailsOfPdfs(createBatch(12, new ArrayList<>())).forEach(Try::get);
+
+      // The normal lane can use the 80% of the 5 connections
+      assertEquals(4, maxRunning.get());
+    }
+  }
+
+  @Test
+  void givenAFailureInTheMiddleOfTheBatchTheOtherFilesShouldSucceed() throws IOException {
+    failingFile = 2;
+    try (PreviewClient client = createClient(4)) {
+
+      List<Try<BlobResponse>> results = client
+        .postThumbnailsOfDocuments(createBatch(5, new ArrayList<>()))
+        .toJavaList();
+
+      assertInstanceOf(InternalServerError.class, results.get(2).getCause());
+      for (int file : new int[]{0, 1, 3, 4}) {
+        assertEquals("thumbnail of file-" + file, readContent(results.get(file)));
+      }
+    }
+  }
+
+  @Test
+  void givenABatchTheBlobOfEveryFileShouldBeClosed() throws IOException {
+    failingFile = 1;
+    List<TrackedBlob> blobs = new ArrayList<>();
+    try (PreviewClient client = createClient(2)) {
+
+      client.postThumbnailsOfImages(createBatch(4, blobs)).toJavaList();
+
+      blobs.forEach(blob -> assertTrue(blob.closed));
+    }
+  }
+
+  @Test
+  void givenABatchOnlyTheResultsRequestedShouldBeSent() throws IOException {
+    List<TrackedBlob> blobs = new ArrayList<>();
+    try (PreviewClient client = createClient(2)) {
+
+      assertEquals("thumbnail of file-0", readContent(
+        client.postThumbnailsOfImages(createBatch(6, blobs)).next()
+      ));
+
+      // Two files are sent at first, and a third one once the first result is returned
+      assertTrue(blobs.get(0).closed);
+      assertFalse(blobs.get(5).closed);
+    }
+  }
+
+  @Test
+  void givenABatchTheFilesShouldReuseThePooledConnections() throws IOException {
+    try (PreviewClient client = createClient(2)) {
+
+      List<Try<BlobResponse>> results = client
+        .postThumbnailsOfImages(createBatch(12, new ArrayList<>()))
+        .toJavaList();
+
+      long reused = results
+        .stream()
+        .filter(result -> result.get().getRequestTiming().get().isConnectionReused())
+        .count();
+      assertEquals(10, reused);
+      assertEquals(2, clientPorts.size());
+    }
+  }
+}
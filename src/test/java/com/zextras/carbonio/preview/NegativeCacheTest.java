@@ -0,0 +1,171 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.zextras.carbonio.preview.exceptions.BadRequest;
+import com.zextras.carbonio.preview.exceptions.InternalServerError;
+import com.zextras.carbonio.preview.exceptions.ItemNotFound;
+import com.zextras.carbonio.preview.exceptions.ValidationError;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class NegativeCacheTest {
+
+  private static final String OWNER_ID = "owner-id";
+  private static final String FILE_ID  = "file-id";
+  private static final String URI      = "http://127.0.0.1/preview/image/file-id/1/10x10/";
+
+  @Test
+  void givenACachedItemNotFoundGetShouldReturnANewItemNotFound() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+    ItemNotFound failure = new ItemNotFound();
+
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), failure);
+
+    assertInstanceOf(ItemNotFound.class, cache.get(OWNER_ID, URI).get());
+    assertFalse(cache.get(OWNER_ID, URI).get().getRequestTiming().isPresent());
+  }
+
+  @Test
+  void givenACachedValidationErrorGetShouldReturnAValidationError() {
+    NegativeCache cache = new NegativeCache(Duration.ZERO, Duration.ofMinutes(1), 10);
+
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ValidationError());
+
+    assertInstanceOf(ValidationError.class, cache.get(OWNER_ID, URI).get());
+  }
+
+  @Test
+  void givenAnErrorTypeWithZeroTtlPutShouldNotCacheIt() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ValidationError());
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenAnErrorThatIsNotCacheablePutShouldIgnoreIt() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ofMinutes(1), 10);
+
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new BadRequest());
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new InternalServerError());
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenTheSameUriOfAnotherOwnerGetShouldNotReturnTheCachedError() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ItemNotFound());
+
+    assertFalse(cache.get("another-owner-id", URI).isPresent());
+  }
+
+  @Test
+  void givenAnExpiredEntryGetShouldNotReturnIt() throws InterruptedException {
+    NegativeCache cache = new NegativeCache(Duration.ofMillis(50), Duration.ZERO, 10);
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ItemNotFound());
+    assertTrue(cache.get(OWNER_ID, URI).isPresent());
+
+    Thread.sleep(100);
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenCachedErrorsOfManyVersionsInvalidateShouldRemoveAllOfThem() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ofMinutes(1), 10);
+    String secondVersionUri = "http://127.0.0.1/preview/image/file-id/2/10x10/";
+    String otherFileUri = "http://127.0.0.1/preview/image/other-file-id/1/10x10/";
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ItemNotFound());
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, secondVersionUri), new ValidationError());
+    cache.put(cache.createTarget(OWNER_ID, "other-file-id", otherFileUri), new ItemNotFound());
+
+    cache.invalidate(FILE_ID);
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+    assertFalse(cache.get(OWNER_ID, secondVersionUri).isPresent());
+    assertTrue(cache.get(OWNER_ID, otherFileUri).isPresent());
+  }
+
+  @Test
+  void givenCachedErrorsInvalidateAllShouldRemoveAllOfThem() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ItemNotFound());
+
+    cache.invalidateAll();
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenAFullCachePutShouldEvictTheLeastRecentlyUsedEntry() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 2);
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, "uri-1"), new ItemNotFound());
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, "uri-2"), new ItemNotFound());
+    cache.get(OWNER_ID, "uri-1");
+
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, "uri-3"), new ItemNotFound());
+
+    assertTrue(cache.get(OWNER_ID, "uri-1").isPresent());
+    assertFalse(cache.get(OWNER_ID, "uri-2").isPresent());
+    assertTrue(cache.get(OWNER_ID, "uri-3").isPresent());
+  }
+
+  @Test
+  void givenAFileInvalidatedWhileItsRequestWasRunningPutShouldNotCacheTheFailure() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+    NegativeCache.Target target = cache.createTarget(OWNER_ID, FILE_ID, URI);
+
+    cache.invalidate(FILE_ID);
+    cache.put(target, new ItemNotFound());
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ItemNotFound());
+    assertTrue(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenAnotherFileInvalidatedWhileTheRequestWasRunningPutShouldCacheTheFailure() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+    NegativeCache.Target target = cache.createTarget(OWNER_ID, FILE_ID, URI);
+
+    cache.invalidate("other-file-id");
+    cache.put(target, new ItemNotFound());
+
+    assertTrue(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenTheWholeCacheInvalidatedWhileTheRequestWasRunningPutShouldNotCacheTheFailure() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 10);
+    NegativeCache.Target target = cache.createTarget(OWNER_ID, FILE_ID, URI);
+
+    cache.invalidateAll();
+    cache.put(target, new ItemNotFound());
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+    cache.put(cache.createTarget(OWNER_ID, FILE_ID, URI), new ItemNotFound());
+    assertTrue(cache.get(OWNER_ID, URI).isPresent());
+  }
+
+  @Test
+  void givenMoreInvalidationsThanEntriesPutShouldStillSkipTheForgottenOnes() {
+    NegativeCache cache = new NegativeCache(Duration.ofMinutes(1), Duration.ZERO, 1);
+    NegativeCache.Target target = cache.createTarget(OWNER_ID, FILE_ID, URI);
+
+    cache.invalidate(FILE_ID);
+    cache.invalidate("other-file-id");
+    cache.put(target, new ItemNotFound());
+
+    assertFalse(cache.get(OWNER_ID, URI).isPresent());
+  }
+}
@@ -0,0 +1,184 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zextras.carbonio.preview.PreviewClient.PreviewClientBuilder;
+import com.zextras.carbonio.preview.exceptions.TooManyRequests;
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import com.zextras.carbonio.preview.queries.Query;
+import com.zextras.carbonio.preview.queries.Query.QueryBuilder;
+import com.zextras.carbonio.preview.queries.enums.Priority;
+import com.zextras.carbonio.preview.queries.enums.ServiceType;
+import io.vavr.control.Try;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class PreviewClientTest {
+
+  private static final byte[] BODY = "preview".getBytes(StandardCharsets.UTF_8);
+
+  private HttpServer previewService;
+
+  private static Query getQuery() {
+    return new QueryBuilder("owner-id", "file-id", 1, ServiceType.FILES)
+      .setPreviewArea("10x10")
+      .build();
+  }
+
+  /**
+   * Starts a fake Preview service replying with {@link #BODY} without a <code>Content-Type</code>.
+   */
+  @BeforeEach
+  void startPreviewService() throws IOException {
+    previewService = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    previewService.createContext("/preview/", exchange -> {
+      exchange.sendResponseHeaders(200, BODY.length);
+      try (OutputStream body = exchange.getResponseBody()) {
+        body.write(BODY);
+      }
+      exchange.close();
+    });
+    previewService.start();
+  }
+
+  @AfterEach
+  void stopPreviewService() {
+    previewService.stop(0);
+  }
+
+  private PreviewClientBuilder createBuilder() {
+    return new PreviewClientBuilder(
+      "http://127.0.0.1:" + previewService.getAddress().getPort()
+    )
+      .setMaxConnections(1)
+      .setQueueTimeout(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void givenAResponseWithoutContentTypeGetShouldReturnAnOctetStream() throws IOException {
+    try (PreviewClient client = createBuilder().build()) {
+      // With a single connection a leaked lane slot would make the next requests fail
+      for (int request = 0; request < 3; request++) {
+        try (BlobResponse blobResponse = client.getPreviewOfImage(getQuery()).get()) {
+          assertEquals("application/octet-stream", blobResponse.getMimeType());
+          assertArrayEquals(BODY, blobResponse.getContent().readAllBytes());
+        }
+      }
+    }
+  }
+
+  @Test
+  void givenACachedResponseWithoutContentTypeGetShouldReturnAnOctetStream() throws IOException {
+    try (
+      PreviewClient client = createBuilder()
+        .setResponseCacheSize(10)
+        .setResponseCacheFreshness(Duration.ofMinutes(1))
+        .build()
+    ) {
+      for (int request = 0; request < 2; request++) {
+        try (BlobResponse blobResponse = client.getPreviewOfImage(getQuery()).get()) {
+          assertEquals("application/octet-stream", blobResponse.getMimeType());
+          assertArrayEquals(BODY, blobResponse.getContent().readAllBytes());
+        }
+      }
+    }
+  }
+
+  @Test
+  void givenAFullLaneTheTooManyRequestsShouldExposeTheQueueWait() throws IOException {
+    try (
+      PreviewClient client = createBuilder().setQueueTimeout(Duration.ofMillis(200)).build();
+      BlobResponse unread = client.getPreviewOfImage(getQuery()).get()
+    ) {
+
+      Try<BlobResponse> result = client.getPreviewOfImage(getQuery());
+
+      assertInstanceOf(TooManyRequests.class, result.getCause());
+      RequestTiming timing = ((TooManyRequests) result.getCause()).getRequestTiming().get();
+      assertTrue(timing.isFailed());
+      assertTrue(timing.getQueueWait().toMillis() >= 200);
+      assertEquals(Duration.ZERO, timing.getPoolLease());
+    }
+  }
+
+  @Test
+  void givenOutOfRangeSizesTheBuilderShouldThrowAnIllegalArgumentException() {
+    PreviewClientBuilder builder = new PreviewClientBuilder("http://127.0.0.1:1");
+
+    assertThrows(IllegalArgumentException.class, () -> builder.setMaxConnections(0));
+    assertThrows(IllegalArgumentException.class, () -> builder.setNegativeCacheSize(-1));
+    assertThrows(IllegalArgumentException.class, () -> builder.setResponseCacheSize(-1));
+    assertThrows(IllegalArgumentException.class, () -> builder.setResponseCacheMaxEntryBytes(-1));
+    assertThrows(IllegalArgumentException.class, () -> builder.setWarmUpConnections(-1));
+  }
+
+  @Test
+  void givenOutOfRangeLaneSettingsTheBuilderShouldThrowAnIllegalArgumentException() {
+    PreviewClientBuilder builder = new PreviewClientBuilder("http://127.0.0.1:1");
+
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> builder.setConcurrencyShare(Priority.NORMAL, 0)
+    );
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> builder.setConcurrencyShare(Priority.NORMAL, -10)
+    );
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> builder.setConcurrencyShare(Priority.NORMAL, 101)
+    );
+    assertThrows(IllegalArgumentException.class, () -> builder.setConcurrencyShare(null, 50));
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> builder.setQueueCapacity(Priority.BACKGROUND, -1)
+    );
+  }
+
+  @Test
+  void givenOutOfRangeDurationsTheBuilderShouldThrowAnIllegalArgumentException() {
+    PreviewClientBuilder builder = new PreviewClientBuilder("http://127.0.0.1:1");
+    Duration negative = Duration.ofSeconds(-1);
+
+    assertThrows(IllegalArgumentException.class, () -> builder.setQueueTimeout(negative));
+    assertThrows(IllegalArgumentException.class, () -> builder.setItemNotFoundCacheTtl(null));
+    assertThrows(IllegalArgumentException.class, () -> builder.setStaleWhileRevalidate(negative));
+    assertThrows(IllegalArgumentException.class, () -> builder.setSocketTimeout(Duration.ZERO));
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> builder.setConnectTimeout(Duration.ofDays(30))
+    );
+    assertThrows(IllegalArgumentException.class, () -> builder.setWarmUpTimeout(negative));
+  }
+
+  @Test
+  void givenInRangeValuesTheBuilderShouldAcceptThem() {
+    PreviewClientBuilder builder = new PreviewClientBuilder("http://127.0.0.1:1")
+      .setMaxConnections(1)
+      .setConcurrencyShare(Priority.BACKGROUND, 100)
+      .setQueueCapacity(Priority.BACKGROUND, 0)
+      .setQueueTimeout(Duration.ZERO)
+      .setResponseCacheFreshness(Duration.ZERO)
+      .setSocketTimeout(Duration.ofMillis(1));
+
+    assertDoesNotThrow(() -> builder.build().close());
+  }
+}
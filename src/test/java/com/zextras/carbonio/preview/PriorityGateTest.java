@@ -0,0 +1,219 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.zextras.carbonio.preview.exceptions.TooManyRequests;
+import com.zextras.carbonio.preview.queries.enums.Priority;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class PriorityGateTest {
+
+  private static final Duration QUEUE_TIMEOUT = Duration.ofSeconds(5);
+
+  private final List<Priority> acquiredOrder = Collections.synchronizedList(new ArrayList<>());
+
+  private static Map<Priority, Integer> perLane(
+    int interactive,
+    int normal,
+    int background
+  ) {
+    Map<Priority, Integer> values = new EnumMap<>(Priority.class);
+    values.put(Priority.INTERACTIVE, interactive);
+    values.put(Priority.NORMAL, normal);
+    values.put(Priority.BACKGROUND, background);
+    return values;
+  }
+
+  private static PriorityGate createGate(
+    int capacity,
+    Duration queueTimeout
+  ) {
+    return new PriorityGate(capacity, perLane(100, 100, 100), perLane(10, 10, 10), queueTimeout);
+  }
+
+  /**
+   * Starts a thread that acquires the gate, records the acquisition and releases it right away.
+   * It returns only when the thread is waiting in its lane queue.
+   */
+  private Thread startWaiting(
+    PriorityGate gate,
+    Priority priority
+  ) throws InterruptedException {
+    Thread waiter = new Thread(() -> {
+      try {
+        gate.acquire(priority);
+        acquiredOrder.add(priority);
+        gate.release(priority);
+      } catch (TooManyRequests exception) {
+        // The missing acquisition makes the test fail
+      }
+    });
+    waiter.start();
+    while (waiter.getState() != Thread.State.TIMED_WAITING) {
+      assertTrue(waiter.isAlive(), "the waiter was expected to be queued");
+      Thread.sleep(5);
+    }
+    return waiter;
+  }
+
+  @Test
+  void givenFreeCapacityAcquireShouldNotWait() {
+    PriorityGate gate = createGate(2, Duration.ZERO);
+
+    assertDoesNotThrow(() -> gate.acquire(Priority.NORMAL));
+    assertDoesNotThrow(() -> gate.acquire(Priority.BACKGROUND));
+  }
+
+  @Test
+  void givenAReleasedRequestAcquireShouldReuseItsSlot() throws TooManyRequests {
+    PriorityGate gate = createGate(1, Duration.ZERO);
+    gate.acquire(Priority.NORMAL);
+
+    gate.release(Priority.NORMAL);
+
+    assertDoesNotThrow(() -> gate.acquire(Priority.NORMAL));
+  }
+
+  @Test
+  void givenNoCapacityAcquireShouldFailAfterTheQueueTimeout() throws TooManyRequests {
+    PriorityGate gate = createGate(1, Duration.ofMillis(50));
+    gate.acquire(Priority.NORMAL);
+    long start = System.nanoTime();
+
+    TooManyRequests exception = assertThrows(
+      TooManyRequests.class,
+      () -> gate.acquire(Priority.NORMAL)
+    );
+
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 50);
+    assertEquals("timed out in the NORMAL queue", exception.getMessage());
+  }
+
+  @Test
+  void givenAFullLaneQueueAcquireShouldFailImmediately()
+    throws TooManyRequests, InterruptedException {
+    PriorityGate gate = new PriorityGate(
+      2,
+      perLane(100, 50, 100),
+      perLane(1, 1, 1),
+      QUEUE_TIMEOUT
+    );
+    gate.acquire(Priority.NORMAL);
+    Thread waiter = startWaiting(gate, Priority.NORMAL);
+
+    TooManyRequests exception = assertThrows(
+      TooManyRequests.class,
+      () -> gate.acquire(Priority.NORMAL)
+    );
+    assertEquals("the NORMAL queue is full", exception.getMessage());
+    assertDoesNotThrow(() -> gate.acquire(Priority.INTERACTIVE), "the lanes are independent");
+
+    gate.release(Priority.NORMAL);
+    gate.release(Priority.INTERACTIVE);
+    waiter.join();
+  }
+
+  @Test
+  void givenManyQueuedRequestsOfTheSameLaneReleaseShouldServeThemInArrivalOrder()
+    throws TooManyRequests, InterruptedException {
+    PriorityGate gate = createGate(1, QUEUE_TIMEOUT);
+    List<Thread> waiters = new ArrayList<>();
+    List<String> names = Collections.synchronizedList(new ArrayList<>());
+    gate.acquire(Priority.NORMAL);
+
+    for (int index = 0; index < 5; index++) {
+      String name = "waiter-" + index;
+      Thread waiter = new Thread(() -> {
+        try {
+          gate.acquire(Priority.NORMAL);
+          names.add(name);
+          gate.release(Priority.NORMAL);
+        } catch (TooManyRequests exception) {
+          // The missing name makes the test fail
+        }
+      });
+      waiter.start();
+      while (waiter.getState() != Thread.State.TIMED_WAITING) {
+        Thread.sleep(5);
+      }
+      waiters.add(waiter);
+    }
+    gate.release(Priority.NORMAL);
+    for (Thread waiter : waiters) {
+      waiter.join();
+    }
+
+    assertEquals(List.of("waiter-0", "waiter-1", "waiter-2", "waiter-3", "waiter-4"), names);
+  }
+
+  @Test
+  void givenQueuedRequestsOfManyLanesReleaseShouldServeTheHigherLaneFirst()
+    throws TooManyRequests, InterruptedException {
+    PriorityGate gate = createGate(1, QUEUE_TIMEOUT);
+    gate.acquire(Priority.NORMAL);
+    Thread background = startWaiting(gate, Priority.BACKGROUND);
+    Thread normal = startWaiting(gate, Priority.NORMAL);
+    Thread interactive = startWaiting(gate, Priority.INTERACTIVE);
+
+    gate.release(Priority.NORMAL);
+    background.join();
+    normal.join();
+    interactive.join();
+
+    assertEquals(
+      List.of(Priority.INTERACTIVE, Priority.NORMAL, Priority.BACKGROUND),
+      acquiredOrder
+    );
+  }
+
+  @Test
+  void givenAHigherLaneCappedByItsShareAcquireShouldLetALowerLaneRun()
+    throws TooManyRequests, InterruptedException {
+    PriorityGate gate = new PriorityGate(
+      2,
+      perLane(50, 100, 100),
+      perLane(10, 10, 10),
+      QUEUE_TIMEOUT
+    );
+    gate.acquire(Priority.INTERACTIVE);
+    Thread interactive = startWaiting(gate, Priority.INTERACTIVE);
+    long start = System.nanoTime();
+
+    gate.acquire(Priority.BACKGROUND);
+
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+    gate.release(Priority.BACKGROUND);
+    gate.release(Priority.INTERACTIVE);
+    interactive.join();
+    assertEquals(List.of(Priority.INTERACTIVE), acquiredOrder);
+  }
+
+  @Test
+  void givenALaneAtItsShareAcquireShouldWaitEvenWithFreeCapacity() throws TooManyRequests {
+    PriorityGate gate = new PriorityGate(
+      4,
+      perLane(100, 100, 25),
+      perLane(10, 10, 10),
+      Duration.ofMillis(50)
+    );
+    gate.acquire(Priority.BACKGROUND);
+
+    assertThrows(TooManyRequests.class, () -> gate.acquire(Priority.BACKGROUND));
+    assertDoesNotThrow(() -> gate.acquire(Priority.NORMAL));
+  }
+}
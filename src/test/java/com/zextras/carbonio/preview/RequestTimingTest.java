@@ -0,0 +1,173 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zextras.carbonio.preview.exceptions.InternalServerError;
+import com.zextras.carbonio.preview.exceptions.ItemNotFound;
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import com.zextras.carbonio.preview.queries.Query;
+import com.zextras.carbonio.preview.queries.Query.QueryBuilder;
+import com.zextras.carbonio.preview.queries.enums.ServiceType;
+import io.vavr.control.Try;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class RequestTimingTest {
+
+  private static final byte[] BODY = "preview".getBytes(StandardCharsets.UTF_8);
+
+  private volatile long   responseDelayMillis;
+  private volatile int    responseStatus = 200;
+  private volatile String receivedTraceParent;
+  private HttpServer      previewService;
+
+  private static Query getQuery() {
+    return new QueryBuilder("owner-id", "file-id", 1, ServiceType.FILES)
+      .setPreviewArea("10x10")
+      .build();
+  }
+
+  private static RequestTiming readAndClose(Try<BlobResponse> result) throws IOException {
+    try (BlobResponse blobResponse = result.get()) {
+      blobResponse.getContent().readAllBytes();
+      return blobResponse.getRequestTiming().get();
+    }
+  }
+
+  /**
+   * Starts a fake Preview service that replies with {@link #BODY} after waiting
+   * {@link #responseDelayMillis}.
+   */
+  @BeforeEach
+  void startPreviewService() throws IOException {
+    previewService = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    previewService.createContext("/preview/", exchange -> {
+      receivedTraceParent = exchange
+        .getRequestHeaders()
+        .getFirst(RequestTiming.TRACE_PARENT_HEADER);
+      try {
+        Thread.sleep(responseDelayMillis);
+      } catch (InterruptedException exception) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+      try {
+        exchange.sendResponseHeaders(responseStatus, BODY.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+          body.write(BODY);
+        }
+      } catch (IOException exception) {
+        // The client went away after its socket timeout
+      }
+      exchange.close();
+    });
+    previewService.start();
+  }
+
+  @AfterEach
+  void stopPreviewService() {
+    previewService.stop(0);
+  }
+
+  private PreviewClient.PreviewClientBuilder createBuilder() {
+    return new PreviewClient.PreviewClientBuilder(
+      "http://127.0.0.1:" + previewService.getAddress().getPort()
+    );
+  }
+
+  @Test
+  void givenASuccessfulRequestTheTimingShouldMeasureEveryPhase() throws IOException {
+    responseDelayMillis = 100;
+    try (PreviewClient client = createBuilder().setTraceContextPropagation(true).build()) {
+
+      RequestTiming timing = readAndClose(client.getPreviewOfImage(getQuery()));
+
+      assertFalse(timing.isFailed());
+      assertFalse(timing.isConnectionReused());
+      assertTrue(timing.getConnect().toNanos() > 0);
+      assertTrue(timing.getRequestWrite().toNanos() > 0);
+      assertTrue(timing.getTimeToFirstByte().toMillis() >= 100);
+      assertTrue(timing.getDownload().isPresent());
+      assertTrue(timing.getTotal().compareTo(timing.getTimeToFirstByte()) > 0);
+      assertEquals(previewService.getAddress().getPort(), timing.getEndpoint().get().getPort());
+      assertTrue(timing.getBytesSent() > 0);
+      assertEquals(BODY.length, timing.getBytesReceived());
+      assertEquals(timing.getTraceParent().get(), receivedTraceParent);
+    }
+  }
+
+  @Test
+  void givenAStreamedResponseNotReadYetTheDownloadShouldBePending() throws IOException {
+    try (PreviewClient client = createBuilder().build()) {
+      try (BlobResponse blobResponse = client.getPreviewOfImage(getQuery()).get()) {
+        RequestTiming timing = blobResponse.getRequestTiming().get();
+
+        assertFalse(timing.getDownload().isPresent());
+        blobResponse.getContent().readAllBytes();
+        assertTrue(timing.getDownload().isPresent());
+      }
+    }
+  }
+
+  @Test
+  void givenASecondRequestTheTimingShouldReportTheReusedConnection() throws IOException {
+    try (PreviewClient client = createBuilder().build()) {
+      readAndClose(client.getPreviewOfImage(getQuery()));
+
+      RequestTiming timing = readAndClose(client.getPreviewOfImage(getQuery()));
+
+      assertTrue(timing.isConnectionReused());
+      assertEquals(Duration.ZERO, timing.getConnect());
+      assertTrue(timing.getRequestWrite().toNanos() > 0);
+      assertTrue(timing.getTimeToFirstByte().toNanos() > 0);
+    }
+  }
+
+  @Test
+  void givenAnErrorStatusTheFailureShouldExposeTheTiming() throws IOException {
+    responseStatus = 404;
+    try (PreviewClient client = createBuilder().build()) {
+
+      Try<BlobResponse> result = client.getPreviewOfImage(getQuery());
+
+      assertInstanceOf(ItemNotFound.class, result.getCause());
+      RequestTiming timing = ((ItemNotFound) result.getCause()).getRequestTiming().get();
+      assertFalse(timing.isFailed());
+      assertTrue(timing.getTimeToFirstByte().toNanos() > 0);
+    }
+  }
+
+  @Test
+  void givenASocketTimeoutTheTimingShouldEndTheTimeToFirstByteAtTheFailure() throws IOException {
+    responseDelayMillis = 1000;
+    try (PreviewClient client = createBuilder().setSocketTimeout(Duration.ofMillis(300)).build()) {
+
+      Try<BlobResponse> result = client.getPreviewOfImage(getQuery());
+
+      assertInstanceOf(InternalServerError.class, result.getCause());
+      RequestTiming timing = ((InternalServerError) result.getCause()).getRequestTiming().get();
+      assertTrue(timing.isFailed());
+      assertTrue(timing.getConnect().toNanos() > 0);
+      assertTrue(timing.getRequestWrite().toNanos() > 0);
+      assertTrue(timing.getTimeToFirstByte().toMillis() >= 300);
+      assertTrue(timing.getTotal().compareTo(timing.getTimeToFirstByte()) >= 0);
+      assertTrue(timing.getTotal().toMillis() < 1000);
+    }
+  }
+}
@@ -0,0 +1,382 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import com.zextras.carbonio.preview.queries.Query;
+import com.zextras.carbonio.preview.queries.Query.QueryBuilder;
+import com.zextras.carbonio.preview.queries.enums.ServiceType;
+import io.vavr.control.Try;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class ResponseCacheTest {
+
+  private static final String FILE_ID = "file-id";
+  private static final String KEY     = ResponseCache.createKey("owner-id", "uri");
+  private static final byte[] BODY    = "preview".getBytes(StandardCharsets.UTF_8);
+  private static final String ETAG    = "\"v1\"";
+
+  private final AtomicInteger requestCount  = new AtomicInteger();
+  private final List<String>  ifNoneMatches = Collections.synchronizedList(new ArrayList<>());
+  private volatile String     cacheControl;
+  private volatile String     currentETag = ETAG;
+  private HttpServer          previewService;
+
+  private static HttpResponse createResponse(String... headers) {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    response.setEntity(new ByteArrayEntity(BODY, ContentType.IMAGE_JPEG));
+    for (int index = 0; index < headers.length; index += 2) {
+      response.addHeader(headers[index], headers[index + 1]);
+    }
+    return response;
+  }
+
+  private static HttpResponse createNotModifiedResponse(String... headers) {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 304, "Not Modified");
+    for (int index = 0; index < headers.length; index += 2) {
+      response.addHeader(headers[index], headers[index + 1]);
+    }
+    return response;
+  }
+
+  private static Query getQuery() {
+    return new QueryBuilder("owner-id", FILE_ID, 1, ServiceType.FILES)
+      .setPreviewArea("10x10")
+      .build();
+  }
+
+  private static byte[] readContent(Try<BlobResponse> result) throws IOException {
+    try (BlobResponse blobResponse = result.get()) {
+      return blobResponse.getContent().readAllBytes();
+    }
+  }
+
+  /**
+   * Starts a fake Preview service replying to every request with {@link #BODY} and
+   * {@link #currentETag}, or with <code>304 Not Modified</code> when the request carries
+   * {@link #ETAG} or the current ETag.
+   */
+  @BeforeEach
+  void startPreviewService() throws IOException {
+    previewService = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    previewService.createContext("/preview/", exchange -> {
+      requestCount.incrementAndGet();
+      String ifNoneMatch = exchange.getRequestHeaders().getFirst(HttpHeaders.IF_NONE_MATCH);
+      ifNoneMatches.add(ifNoneMatch);
+      exchange.getResponseHeaders().add(HttpHeaders.ETAG, currentETag);
+      if (cacheControl != null) {
+        exchange.getResponseHeaders().add(HttpHeaders.CACHE_CONTROL, cacheControl);
+      }
+      if (ETAG.equals(ifNoneMatch) || currentETag.equals(ifNoneMatch)) {
+        // The JDK server closes the connection after a 304 without saying it
+        exchange.getResponseHeaders().add(HttpHeaders.CONNECTION, "close");
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "image/jpeg");
+        exchange.sendResponseHeaders(200, BODY.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+          body.write(BODY);
+        }
+      }
+      exchange.close();
+    });
+    previewService.start();
+  }
+
+  @AfterEach
+  void stopPreviewService() {
+    previewService.stop(0);
+  }
+
+  private PreviewClient createClient(
+    Duration freshness,
+    Duration staleWhileRevalidate
+  ) {
+    return new PreviewClient.PreviewClientBuilder(
+      "http://127.0.0.1:" + previewService.getAddress().getPort()
+    )
+      .setResponseCacheSize(10)
+      .setResponseCacheFreshness(freshness)
+      .setStaleWhileRevalidate(staleWhileRevalidate)
+      .build();
+  }
+
+  @Test
+  void givenAResponseWithoutValidatorsAndNoFreshnessAcceptsShouldReturnFalse() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ZERO, Duration.ZERO);
+
+    assertFalse(cache.accepts(createResponse()));
+    assertTrue(cache.accepts(createResponse(HttpHeaders.ETAG, ETAG)));
+    assertTrue(cache.accepts(
+      createResponse(HttpHeaders.LAST_MODIFIED, "Tue, 1 Nov 2022 00:00:00 GMT")
+    ));
+  }
+
+  @Test
+  void givenAResponseWithoutValidatorsAndAFreshnessAcceptsShouldReturnTrue() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ofMinutes(1), Duration.ZERO);
+
+    assertTrue(cache.accepts(createResponse()));
+  }
+
+  @Test
+  void givenANoStoreResponseAcceptsShouldReturnFalse() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ofMinutes(1), Duration.ZERO);
+
+    assertFalse(cache.accepts(createResponse(HttpHeaders.CACHE_CONTROL, "private, no-store")));
+    assertTrue(cache.accepts(createResponse(HttpHeaders.CACHE_CONTROL, "max-age=60")));
+  }
+
+  @Test
+  void givenAResponseTooBigOrOfUnknownLengthAcceptsShouldReturnFalse() {
+    ResponseCache cache = new ResponseCache(
+      10,
+      BODY.length - 1,
+      Duration.ofMinutes(1),
+      Duration.ZERO
+    );
+    HttpResponse unknownLength = createResponse();
+    BasicHttpEntity streamedEntity = new BasicHttpEntity();
+    streamedEntity.setContentLength(-1);
+    unknownLength.setEntity(streamedEntity);
+
+    assertFalse(cache.accepts(createResponse()));
+    assertFalse(cache.accepts(unknownLength));
+  }
+
+  @Test
+  void givenADisabledCacheAcceptsShouldReturnFalse() {
+    ResponseCache cache = new ResponseCache(0, 1024, Duration.ofMinutes(1), Duration.ZERO);
+
+    assertFalse(cache.isEnabled());
+    assertFalse(cache.accepts(createResponse(HttpHeaders.ETAG, ETAG)));
+  }
+
+  @Test
+  void givenAnEntryOlderThanTheFreshnessItShouldBeServableOnlyWithinTheStaleWindow()
+    throws InterruptedException {
+    ResponseCache cache = new ResponseCache(
+      10,
+      1024,
+      Duration.ofMillis(50),
+      Duration.ofMillis(200)
+    );
+    ResponseCache.CachedResponse entry = cache.createEntry(
+      FILE_ID, BODY, "image/jpeg", createResponse()
+    );
+    assertTrue(entry.isFresh());
+
+    Thread.sleep(100);
+    assertFalse(entry.isFresh());
+    assertTrue(entry.isServableWhileRevalidating());
+    assertTrue(entry.refresh(createNotModifiedResponse()).isFresh());
+
+    Thread.sleep(200);
+    assertFalse(entry.isServableWhileRevalidating());
+  }
+
+  @Test
+  void givenAnEntryWithValidatorsAddConditionalHeadersShouldSetThem() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ZERO, Duration.ZERO);
+    String lastModified = "Tue, 1 Nov 2022 00:00:00 GMT";
+    ResponseCache.CachedResponse entry = cache.createEntry(
+      FILE_ID,
+      BODY,
+      "image/jpeg",
+      createResponse(HttpHeaders.ETAG, ETAG, HttpHeaders.LAST_MODIFIED, lastModified)
+    );
+    HttpGet request = new HttpGet("http://127.0.0.1/");
+
+    entry.addConditionalHeaders(request);
+
+    assertEquals(ETAG, request.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+    assertEquals(lastModified, request.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue());
+  }
+
+  @Test
+  void givenANotModifiedResponseWithNewValidatorsRefreshShouldStoreThem() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ZERO, Duration.ZERO);
+    String lastModified = "Tue, 1 Nov 2022 00:00:00 GMT";
+    ResponseCache.CachedResponse entry = cache.createEntry(
+      FILE_ID,
+      BODY,
+      "image/jpeg",
+      createResponse(HttpHeaders.ETAG, ETAG, HttpHeaders.LAST_MODIFIED, lastModified)
+    );
+    HttpGet request = new HttpGet("http://127.0.0.1/");
+
+    entry
+      .refresh(createNotModifiedResponse(HttpHeaders.ETAG, "\"v2\""))
+      .addConditionalHeaders(request);
+
+    assertEquals("\"v2\"", request.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+    assertEquals(lastModified, request.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue());
+  }
+
+  @Test
+  void givenAFileInvalidatedAfterTheTargetCreationPutShouldNotStoreTheEntry() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ofMinutes(1), Duration.ZERO);
+    ResponseCache.Target target = cache.createTarget(KEY, FILE_ID, null);
+    ResponseCache.CachedResponse entry = cache.createEntry(
+      FILE_ID, BODY, "image/jpeg", createResponse()
+    );
+
+    cache.invalidate(FILE_ID);
+    cache.put(target, entry);
+
+    assertFalse(cache.get(KEY).isPresent());
+    cache.put(cache.createTarget(KEY, FILE_ID, null), entry);
+    assertTrue(cache.get(KEY).isPresent());
+  }
+
+  @Test
+  void givenAnotherFileInvalidatedAfterTheTargetCreationPutShouldStoreTheEntry() {
+    ResponseCache cache = new ResponseCache(10, 1024, Duration.ofMinutes(1), Duration.ZERO);
+    ResponseCache.Target target = cache.createTarget(KEY, FILE_ID, null);
+
+    cache.invalidate("other-file-id");
+    cache.put(target, cache.createEntry(FILE_ID, BODY, "image/jpeg", createResponse()));
+
+    assertTrue(cache.get(KEY).isPresent());
+  }
+
+  @Test
+  void givenAFullCachePutShouldEvictTheLeastRecentlyUsedEntry() {
+    ResponseCache cache = new ResponseCache(2, 1024, Duration.ofMinutes(1), Duration.ZERO);
+    ResponseCache.CachedResponse entry = cache.createEntry(
+      FILE_ID, BODY, "image/jpeg", createResponse()
+    );
+    cache.put(cache.createTarget("key-1", FILE_ID, null), entry);
+    cache.put(cache.createTarget("key-2", FILE_ID, null), entry);
+    cache.get("key-1");
+
+    cache.put(cache.createTarget("key-3", FILE_ID, null), entry);
+
+    assertTrue(cache.get("key-1").isPresent());
+    assertFalse(cache.get("key-2").isPresent());
+    assertTrue(cache.get("key-3").isPresent());
+  }
+
+  @Test
+  void givenAFreshCachedResponseGetShouldNotCallThePreviewService() throws IOException {
+    try (PreviewClient client = createClient(Duration.ofMinutes(1), Duration.ZERO)) {
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+
+      Try<BlobResponse> cachedResult = client.getPreviewOfImage(getQuery());
+
+      assertFalse(cachedResult.get().getRequestTiming().isPresent());
+      assertArrayEquals(BODY, readContent(cachedResult));
+      assertEquals(1, requestCount.get());
+    }
+  }
+
+  @Test
+  void givenAStaleCachedResponseGetShouldSendAConditionalRequestAndServeTheNotModifiedEntry()
+    throws IOException {
+    try (PreviewClient client = createClient(Duration.ZERO, Duration.ZERO)) {
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+
+      Try<BlobResponse> revalidatedResult = client.getPreviewOfImage(getQuery());
+
+      assertTrue(revalidatedResult.get().getRequestTiming().isPresent());
+      assertArrayEquals(BODY, readContent(revalidatedResult));
+      assertEquals(2, requestCount.get());
+      assertNull(ifNoneMatches.get(0));
+      assertEquals(ETAG, ifNoneMatches.get(1));
+    }
+  }
+
+  @Test
+  void givenANotModifiedResponseWithANewETagGetShouldRevalidateWithTheNewETag()
+    throws IOException {
+    try (PreviewClient client = createClient(Duration.ZERO, Duration.ZERO)) {
+      readContent(client.getPreviewOfImage(getQuery()));
+      currentETag = "\"v2\"";
+
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+
+      assertEquals(3, requestCount.get());
+      assertEquals(ETAG, ifNoneMatches.get(1));
+      assertEquals("\"v2\"", ifNoneMatches.get(2));
+    }
+  }
+
+  @Test
+  void givenACachedResponseInTheStaleWindowGetShouldServeItAndRevalidateInBackground()
+    throws IOException, InterruptedException {
+    try (PreviewClient client = createClient(Duration.ofMillis(500), Duration.ofMinutes(1))) {
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+      Thread.sleep(600);
+
+      Try<BlobResponse> staleResult = client.getPreviewOfImage(getQuery());
+
+      assertFalse(staleResult.get().getRequestTiming().isPresent());
+      assertArrayEquals(BODY, readContent(staleResult));
+      while (requestCount.get() < 2) {
+        Thread.sleep(5);
+      }
+      assertEquals(ETAG, ifNoneMatches.get(1));
+
+      // Once revalidated, the entry is fresh again
+      Thread.sleep(100);
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+      assertEquals(2, requestCount.get());
+    }
+  }
+
+  @Test
+  void givenAnInvalidatedFileGetShouldCallThePreviewServiceWithoutValidators() throws IOException {
+    try (PreviewClient client = createClient(Duration.ofMinutes(1), Duration.ZERO)) {
+      readContent(client.getPreviewOfImage(getQuery()));
+
+      client.invalidateResponseCache(FILE_ID);
+
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+      assertEquals(2, requestCount.get());
+      assertNull(ifNoneMatches.get(1));
+    }
+  }
+
+  @Test
+  void givenANoStoreResponseGetShouldNotCacheIt() throws IOException {
+    cacheControl = "no-store";
+    try (PreviewClient client = createClient(Duration.ofMinutes(1), Duration.ZERO)) {
+      readContent(client.getPreviewOfImage(getQuery()));
+
+      assertArrayEquals(BODY, readContent(client.getPreviewOfImage(getQuery())));
+      assertEquals(2, requestCount.get());
+      assertNull(ifNoneMatches.get(1));
+    }
+  }
+}
@@ -0,0 +1,161 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zextras.carbonio.preview.queries.BlobResponse;
+import com.zextras.carbonio.preview.queries.Query;
+import com.zextras.carbonio.preview.queries.Query.QueryBuilder;
+import com.zextras.carbonio.preview.queries.enums.ServiceType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(10)
+class WarmUpTest {
+
+  private static final byte[]   BODY                = "preview".getBytes(StandardCharsets.UTF_8);
+  private static final Duration WARM_UP_TIMEOUT     = Duration.ofSeconds(1);
+  // The socket timeout of the last step fires at the deadline, then the client has to return
+  private static final long     RETURN_SLACK_MILLIS = 200;
+
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private volatile int       readyStatus = 200;
+  private HttpServer         previewService;
+  private ExecutorService    previewServiceExecutor;
+
+  private static Query getQuery() {
+    return new QueryBuilder("owner-id", "file-id", 1, ServiceType.FILES)
+      .setPreviewArea("10x10")
+      .build();
+  }
+
+  /**
+   * Starts a fake Preview service whose health endpoints reply 200, or {@link #readyStatus} for
+   * the readiness, and whose preview endpoint replies with {@link #BODY}.
+   */
+  @BeforeEach
+  void startPreviewService() throws IOException {
+    previewService = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    previewService.createContext("/", exchange -> {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+      int status = exchange.getRequestURI().getPath().startsWith("/health/ready/")
+        ? readyStatus
+        : 200;
+      exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+      exchange.sendResponseHeaders(status, BODY.length);
+      try (OutputStream body = exchange.getResponseBody()) {
+        body.write(BODY);
+      }
+      exchange.close();
+    });
+    previewServiceExecutor = Executors.newCachedThreadPool();
+    previewService.setExecutor(previewServiceExecutor);
+    previewService.start();
+  }
+
+  @AfterEach
+  void stopPreviewService() {
+    previewService.stop(0);
+    previewServiceExecutor.shutdownNow();
+  }
+
+  private static PreviewClient.PreviewClientBuilder createBuilder(int port) {
+    return new PreviewClient.PreviewClientBuilder("http://127.0.0.1:" + port)
+      .setWarmUpConnections(2)
+      .setWarmUpTimeout(WARM_UP_TIMEOUT);
+  }
+
+  @Test
+  void givenAWarmedUpClientTheFirstRequestsShouldReuseTheOpenedConnections() throws IOException {
+    try (PreviewClient client = createBuilder(previewService.getAddress().getPort()).build()) {
+      assertTrue(client.warmUp());
+
+      try (
+        BlobResponse first = client.getPreviewOfImage(getQuery()).get();
+        BlobResponse second = client.getPreviewOfImage(getQuery()).get()
+      ) {
+        // Both the responses are still open, so they use two different pooled connections
+        assertTrue(first.getRequestTiming().get().isConnectionReused());
+        assertTrue(second.getRequestTiming().get().isConnectionReused());
+      }
+      assertEquals(2, clientPorts.size());
+    }
+  }
+
+  @Test
+  void givenAWarmUpOnBuildTheFirstRequestShouldReuseAnOpenedConnection() throws IOException {
+    try (
+      PreviewClient client = createBuilder(previewService.getAddress().getPort())
+        .setWarmUpOnBuild(true)
+        .build();
+      BlobResponse blobResponse = client.getPreviewOfImage(getQuery()).get()
+    ) {
+      assertTrue(blobResponse.getRequestTiming().get().isConnectionReused());
+    }
+  }
+
+  @Test
+  void givenANotReadyServiceWarmUpShouldReturnFalse() throws IOException {
+    readyStatus = 503;
+    try (PreviewClient client = createBuilder(previewService.getAddress().getPort()).build()) {
+
+      assertFalse(client.warmUp());
+    }
+  }
+
+  @Test
+  void givenAServiceThatNeverRepliesBuildShouldReturnWithinTheWarmUpTimeout() throws IOException {
+    // The kernel completes the TCP handshakes in the backlog, but nothing is ever read or written
+    try (ServerSocket silentService = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      long start = System.nanoTime();
+
+      PreviewClient client = createBuilder(silentService.getLocalPort())
+        .setWarmUpOnBuild(true)
+        .build();
+
+      long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+      client.close();
+      assertTrue(
+        elapsedMillis < WARM_UP_TIMEOUT.toMillis() + RETURN_SLACK_MILLIS,
+        "build took " + elapsedMillis + "ms"
+      );
+    }
+  }
+
+  @Test
+  void givenAServiceThatNeverRepliesWarmUpShouldReturnFalseWithinTheTimeout() throws IOException {
+    try (
+      ServerSocket silentService = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      PreviewClient client = createBuilder(silentService.getLocalPort()).build()
+    ) {
+      long start = System.nanoTime();
+
+      assertFalse(client.warmUp());
+
+      long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+      assertTrue(
+        elapsedMillis < WARM_UP_TIMEOUT.toMillis() + RETURN_SLACK_MILLIS,
+        "warm up took " + elapsedMillis + "ms"
+      );
+    }
+  }
+}
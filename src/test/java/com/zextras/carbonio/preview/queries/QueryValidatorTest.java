@@ -0,0 +1,183 @@
+// SPDX-FileCopyrightText: 2022 Zextras <https://www.zextras.com>
+//
+// SPDX-License-Identifier: AGPL-3.0-only
+
+package com.zextras.carbonio.preview.queries;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.zextras.carbonio.preview.exceptions.ValidationError;
+import com.zextras.carbonio.preview.queries.Query.QueryBuilder;
+import com.zextras.carbonio.preview.queries.enums.Endpoint;
+import com.zextras.carbonio.preview.queries.enums.Format;
+import com.zextras.carbonio.preview.queries.enums.Quality;
+import com.zextras.carbonio.preview.queries.enums.ServiceType;
+import com.zextras.carbonio.preview.queries.enums.Shape;
+import io.vavr.control.Try;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class QueryValidatorTest {
+
+  private static QueryBuilder getQuery() {
+    return new QueryBuilder("owner-id", "file-id", 1, ServiceType.FILES);
+  }
+
+  private static void assertValid(Try<Query> result) {
+    assertTrue(result.isSuccess(), () -> "unexpected failure: " + result.getCause().getMessage());
+  }
+
+  private static void assertInvalid(Try<Query> result) {
+    assertTrue(result.isFailure());
+    assertInstanceOf(ValidationError.class, result.getCause());
+  }
+
+  @Test
+  void givenAGetWithoutFileOwnerIdValidateForGetShouldFail() {
+    Query query = new QueryBuilder("file-id", 1, ServiceType.FILES).setPreviewArea("10x10").build();
+
+    Try<Query> result = QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW);
+
+    assertInvalid(result);
+    assertEquals("the file owner id is required", result.getCause().getMessage());
+  }
+
+  @Test
+  void givenAGetWithoutFileIdValidateForGetShouldFail() {
+    Query query = new QueryBuilder().setFileOwnerId("owner-id").setPreviewArea("10x10").build();
+
+    assertInvalid(QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW));
+  }
+
+  @Test
+  void givenAGetWithVersionZeroValidateForGetShouldFail() {
+    Query query = new QueryBuilder("owner-id", "file-id", 0, ServiceType.FILES)
+      .setPreviewArea("10x10")
+      .build();
+
+    assertInvalid(QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW));
+  }
+
+  @Test
+  void givenAPostWithoutFileOwnerIdValidateForPostShouldSucceed() {
+    Query query = new QueryBuilder().setPreviewArea("10x10").build();
+
+    assertValid(QueryValidator.validateForPost(query, Endpoint.IMAGE_THUMBNAIL));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = Endpoint.class, names = {
+    "IMAGE_PREVIEW", "IMAGE_THUMBNAIL", "PDF_THUMBNAIL", "DOCUMENT_THUMBNAIL"
+  })
+  void givenAnImageOutputEndpointWithoutPreviewAreaValidateShouldFail(Endpoint endpoint) {
+    assertInvalid(QueryValidator.validateForGet(getQuery().build(), endpoint));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = Endpoint.class, names = {"PDF_PREVIEW", "DOCUMENT_PREVIEW"})
+  void givenAPdfOutputEndpointWithPreviewAreaValidateShouldFail(Endpoint endpoint) {
+    Query query = getQuery().setPreviewArea("10x10").build();
+
+    assertInvalid(QueryValidator.validateForGet(query, endpoint));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"300x200", "1x1", "0010x01"})
+  void givenAValidPreviewAreaValidateShouldSucceed(String area) {
+    Query query = getQuery().setPreviewArea(area).build();
+
+    assertValid(QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"0x0", "10x0", "0x10", "x10", "10x", "10", "10x10x10", "axb", "-1x10",
+    "١٢x٣", "10 x10", ""})
+  void givenAnInvalidPreviewAreaValidateShouldFail(String area) {
+    Query query = getQuery().setPreviewArea(area).build();
+
+    assertInvalid(QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = Endpoint.class, names = {"IMAGE_THUMBNAIL", "PDF_THUMBNAIL",
+    "DOCUMENT_THUMBNAIL"})
+  void givenAThumbnailWithShapeFormatAndQualityValidateShouldSucceed(Endpoint endpoint) {
+    Query query = getQuery()
+      .setPreviewArea("10x10")
+      .setShape(Shape.ROUNDED)
+      .setOutputFormat(Format.PNG)
+      .setQuality(Quality.HIGH)
+      .build();
+
+    assertValid(QueryValidator.validateForGet(query, endpoint));
+  }
+
+  @Test
+  void givenAnImagePreviewWithShapeValidateShouldFail() {
+    Query query = getQuery().setPreviewArea("10x10").setShape(Shape.RECTANGULAR).build();
+
+    assertInvalid(QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW));
+  }
+
+  @Test
+  void givenAnImagePreviewWithCropFormatAndQualityValidateShouldSucceed() {
+    Query query = getQuery()
+      .setPreviewArea("10x10")
+      .setCrop(true)
+      .setOutputFormat(Format.JPEG)
+      .setQuality(Quality.LOW)
+      .build();
+
+    assertValid(QueryValidator.validateForGet(query, Endpoint.IMAGE_PREVIEW));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = Endpoint.class, names = {"PDF_PREVIEW", "DOCUMENT_PREVIEW"})
+  void givenAPdfOutputEndpointWithOutputFormatValidateShouldFail(Endpoint endpoint) {
+    Query query = getQuery().setOutputFormat(Format.PNG).build();
+
+    assertInvalid(QueryValidator.validateForGet(query, endpoint));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = Endpoint.class, names = {"PDF_PREVIEW", "DOCUMENT_PREVIEW"})
+  void givenAValidPageRangeValidateShouldSucceed(Endpoint endpoint) {
+    assertValid(QueryValidator.validateForGet(
+      getQuery().setFirstPage(2).setLastPage(5).build(), endpoint
+    ));
+    assertValid(QueryValidator.validateForGet(
+      getQuery().setFirstPage(3).setLastPage(3).build(), endpoint
+    ));
+    // A last page equal to zero means until the end of the file
+    assertValid(QueryValidator.validateForGet(
+      getQuery().setFirstPage(3).setLastPage(0).build(), endpoint
+    ));
+  }
+
+  @Test
+  void givenAFirstPageGreaterThanTheLastPageValidateShouldFail() {
+    Query query = getQuery().setFirstPage(3).setLastPage(2).build();
+
+    assertInvalid(QueryValidator.validateForGet(query, Endpoint.PDF_PREVIEW));
+  }
+
+  @Test
+  void givenAFirstPageEqualToZeroValidateShouldFail() {
+    Query query = getQuery().setFirstPage(0).build();
+
+    assertInvalid(QueryValidator.validateForGet(query, Endpoint.DOCUMENT_PREVIEW));
+  }
+
+  @ParameterizedTest
+  @EnumSource(value = Endpoint.class, names = {"IMAGE_PREVIEW", "IMAGE_THUMBNAIL",
+    "PDF_THUMBNAIL", "DOCUMENT_THUMBNAIL"})
+  void givenAPageRangeOnAnImageOutputEndpointValidateShouldFail(Endpoint endpoint) {
+    Query query = getQuery().setPreviewArea("10x10").setFirstPage(1).build();
+
+    assertInvalid(QueryValidator.validateForGet(query, endpoint));
+  }
+}